@@ -0,0 +1,317 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/*
+ * BatchEval evaluates an AST over a whole array of x values at
+ * once, for plotting and tabulating. Rather than walking the tree
+ * once per point, the tree is flattened (once) into a short list
+ * of instructions, and each instruction is a single tight loop over
+ * a block of points. Loops like d[i] = a[i] + b[i] are exactly the
+ * kind the JIT unrolls and turns into SIMD code.
+ *
+ * The points are processed in blocks of BLOCK so that the
+ * intermediate arrays ("registers") stay small and in cache no
+ * matter how many points there are.
+ */
+public class BatchEval
+{
+	// points per block
+	public static final int BLOCK = 1024;
+
+	private static final int ADD = 0, SUB = 1, MUL = 2, DIV = 3, POW = 4;
+	// the functions, in the order of their ids in MathFunction (SIN + id)
+	private static final int SIN = 5, COS = 6, EXP = 7, LOG = 8, SQRT = 9;
+
+	// instruction i computes reg[dst[i]] = left[i] op[i] right[i], where an
+	// operand is a register number, or a constant if its register is -1
+	// (a function has only the left operand, its argument)
+	private int[] op = new int[8], dst = new int[8], lreg = new int[8], rreg = new int[8];
+	private double[] lconst = new double[8], rconst = new double[8];
+	private int size;
+
+	// register allocation: regs in use, and the register holding x
+	private boolean[] inUse = new boolean[8];
+	private int registers = 1;
+	private static final int X = 0;
+
+	// result: a register, or a constant if resultReg is -1
+	private int resultReg;
+	private double resultConst;
+
+	// while compiling: the values of the operands done so far, each a
+	// register, or a constant if its register is -1
+	private int[] valueReg = new int[8];
+	private double[] valueConst = new double[8];
+	private int values;
+
+	private final String variable;
+
+	private BatchEval(String variable)
+	{
+		this.variable=variable;
+		inUse[X] = true;
+	}
+
+	public static BatchEval compile(Node node, String variable)
+	{
+		BatchEval b = new BatchEval(variable);
+		b.emit(node);
+		b.resultReg = b.valueReg[0];
+		b.resultConst = b.valueConst[0];
+		return b;
+	}
+
+	/*
+	 * Emits the instructions for node, leaving its value on the value
+	 * stack. Constant subtrees are folded here. The tree is walked in
+	 * post-order with an explicit stack (as in Polynomial.collect),
+	 * left operand first, so that a deep tree cannot overflow the
+	 * call stack.
+	 */
+	private void emit(Node node)
+	{
+		ArrayDeque<Node> work = new ArrayDeque<Node>();
+		ArrayDeque<Boolean> visited = new ArrayDeque<Boolean>();
+		work.push(node);
+		visited.push(false);
+		while (!work.isEmpty())
+		{
+			Node n = work.pop();
+			boolean operandsDone = visited.pop();
+			if (n.typeIs(Expr.CONST))
+			{
+				push(-1, Rational.toDouble(n.getData().getData()));
+			}
+			else if (n.typeIs(Expr.VARIABLE))
+			{
+				if (!n.dataIs(variable))
+					throw new RuntimeException("Unknown variable: " + n.getData().getData());
+				push(X, 0);
+			}
+			else if (!operandsDone)
+			{
+				work.push(n);
+				visited.push(true);
+				for (Node child : n.getChildren())
+				{
+					work.push(child);
+					visited.push(false);
+				}
+			}
+			else if (n.typeIs(Expr.FUNCTION))
+			{
+				int id = MathFunction.id(n.getData().getData());
+				values--;
+				int a = valueReg[values];
+				double c = valueConst[values];
+				if (a < 0)
+				{
+					push(-1, MathFunction.apply(id, c));
+					continue;
+				}
+				free(a);
+				push(instruction(SIN + id, a, c, -1, 0), 0);
+			}
+			else
+			{
+				int code;
+				switch (n.getData().getData())
+				{
+					case "+": code = ADD; break;
+					case "-": code = SUB; break;
+					case "*": code = MUL; break;
+					case "/": code = DIV; break;
+					case "^": code = POW; break;
+					default: throw new RuntimeException("Unexpected: " + n.getData().getData());
+				}
+
+				values -= 2;
+				int l = valueReg[values], r = valueReg[values+1];
+				double lc = valueConst[values], rc = valueConst[values+1];
+
+				if (l < 0 && r < 0)
+				{
+					push(-1, apply(code, lc, rc));
+					continue;
+				}
+
+				free(l);
+				free(r);
+				push(instruction(code, l, lc, r, rc), 0);
+			}
+		}
+	}
+
+	private void push(int reg, double c)
+	{
+		if (values == valueReg.length)
+		{
+			valueReg = Arrays.copyOf(valueReg, 2*values);
+			valueConst = Arrays.copyOf(valueConst, 2*values);
+		}
+		valueReg[values] = reg;
+		valueConst[values] = c;
+		values++;
+	}
+
+	// adds an instruction, returning the register it writes to
+	private int instruction(int code, int l, double lc, int r, double rc)
+	{
+		int d = allocate();
+
+		if (size == op.length)
+			grow();
+		op[size] = code;
+		dst[size] = d;
+		lreg[size] = l;
+		rreg[size] = r;
+		lconst[size] = lc;
+		rconst[size] = rc;
+		size++;
+		return d;
+	}
+
+	private static double apply(int code, double a, double b)
+	{
+		switch (code)
+		{
+			case ADD: return a + b;
+			case SUB: return a - b;
+			case MUL: return a * b;
+			case DIV: return a / b;
+			default: return Math.pow(a, b);
+		}
+	}
+
+	private int allocate()
+	{
+		for (int i = 0; i < registers; i++)
+		{
+			if (!inUse[i])
+			{
+				inUse[i] = true;
+				return i;
+			}
+		}
+		if (registers == inUse.length)
+			inUse = Arrays.copyOf(inUse, 2*registers);
+		inUse[registers] = true;
+		return registers++;
+	}
+
+	private void free(int reg)
+	{
+		if (reg > X)
+			inUse[reg] = false;
+	}
+
+	private void grow()
+	{
+		op = Arrays.copyOf(op, 2*size);
+		dst = Arrays.copyOf(dst, 2*size);
+		lreg = Arrays.copyOf(lreg, 2*size);
+		rreg = Arrays.copyOf(rreg, 2*size);
+		lconst = Arrays.copyOf(lconst, 2*size);
+		rconst = Arrays.copyOf(rconst, 2*size);
+	}
+
+	public double[] eval(double[] xs)
+	{
+		double[] out = new double[xs.length];
+		eval(xs, out);
+		return out;
+	}
+
+	/*
+	 * Writes f(xs[i]) into out[i] for every i. Safe to call from
+	 * several threads at once, since the registers are per call.
+	 */
+	public void eval(double[] xs, double[] out)
+	{
+		if (resultReg < 0)
+		{
+			Arrays.fill(out, 0, xs.length, resultConst);
+			return;
+		}
+
+		double[][] reg = new double[registers][BLOCK];
+		for (int from = 0; from < xs.length; from += BLOCK)
+		{
+			int len = Math.min(BLOCK, xs.length - from);
+			System.arraycopy(xs, from, reg[X], 0, len);
+
+			for (int i = 0; i < size; i++)
+				run(i, reg, len);
+
+			System.arraycopy(reg[resultReg], 0, out, from, len);
+		}
+	}
+
+	// one instruction over one block, picking the loop for its operand kinds
+	private void run(int i, double[][] reg, int len)
+	{
+		double[] d = reg[dst[i]];
+		if (op[i] >= SIN)
+		{
+			double[] a = reg[lreg[i]];
+			switch (op[i])
+			{
+				case SIN: for (int k = 0; k < len; k++) d[k] = Math.sin(a[k]); break;
+				case COS: for (int k = 0; k < len; k++) d[k] = Math.cos(a[k]); break;
+				case EXP: for (int k = 0; k < len; k++) d[k] = Math.exp(a[k]); break;
+				case LOG: for (int k = 0; k < len; k++) d[k] = Math.log(a[k]); break;
+				default:  for (int k = 0; k < len; k++) d[k] = Math.sqrt(a[k]); break;
+			}
+		}
+		else if (lreg[i] >= 0 && rreg[i] >= 0)
+		{
+			double[] a = reg[lreg[i]], b = reg[rreg[i]];
+			switch (op[i])
+			{
+				case ADD: for (int k = 0; k < len; k++) d[k] = a[k] + b[k]; break;
+				case SUB: for (int k = 0; k < len; k++) d[k] = a[k] - b[k]; break;
+				case MUL: for (int k = 0; k < len; k++) d[k] = a[k] * b[k]; break;
+				case DIV: for (int k = 0; k < len; k++) d[k] = a[k] / b[k]; break;
+				default:  for (int k = 0; k < len; k++) d[k] = Math.pow(a[k], b[k]); break;
+			}
+		}
+		else if (lreg[i] >= 0)
+		{
+			double[] a = reg[lreg[i]];
+			double b = rconst[i];
+			switch (op[i])
+			{
+				case ADD: for (int k = 0; k < len; k++) d[k] = a[k] + b; break;
+				case SUB: for (int k = 0; k < len; k++) d[k] = a[k] - b; break;
+				case MUL: for (int k = 0; k < len; k++) d[k] = a[k] * b; break;
+				case DIV: for (int k = 0; k < len; k++) d[k] = a[k] / b; break;
+				default:
+					// small whole powers are far cheaper as products
+					if (b == 2)
+						for (int k = 0; k < len; k++) d[k] = a[k] * a[k];
+					else if (b == 3)
+						for (int k = 0; k < len; k++) d[k] = a[k] * a[k] * a[k];
+					else if (b == 4)
+						for (int k = 0; k < len; k++) { double s = a[k] * a[k]; d[k] = s * s; }
+					else if (b == 1)
+						System.arraycopy(a, 0, d, 0, len);
+					else
+						for (int k = 0; k < len; k++) d[k] = Math.pow(a[k], b);
+					break;
+			}
+		}
+		else
+		{
+			double a = lconst[i];
+			double[] b = reg[rreg[i]];
+			switch (op[i])
+			{
+				case ADD: for (int k = 0; k < len; k++) d[k] = a + b[k]; break;
+				case SUB: for (int k = 0; k < len; k++) d[k] = a - b[k]; break;
+				case MUL: for (int k = 0; k < len; k++) d[k] = a * b[k]; break;
+				case DIV: for (int k = 0; k < len; k++) d[k] = a / b[k]; break;
+				default:  for (int k = 0; k < len; k++) d[k] = Math.pow(a, b[k]); break;
+			}
+		}
+	}
+}
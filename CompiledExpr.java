@@ -0,0 +1,15 @@
+/*
+ * A CompiledExpr is an expression which has been parsed exactly
+ * once into a tree of small closures over primitive doubles.
+ * Each variable is bound to a slot of the vars array (the slot
+ * is the position of the variable in the "variables" String), so
+ * evaluating f(x) is just a handful of direct calls with no
+ * string building or number parsing along the way.
+ *
+ * This matters for Newton's Method, which evaluates the same
+ * equation hundreds of thousands of times per solve.
+ */
+public interface CompiledExpr
+{
+	double eval(double[] vars);
+}
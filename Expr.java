@@ -1,15 +1,13 @@
-import java.util.HashMap;
-import java.util.Map;
-
 /* 
  * This is the abstract Expression class. Expressions 
  * are the basic form of representative text and input 
  * in the program.
  * 
- * The class encompasses the three types of accepted expressions:
+ * The class encompasses the four types of accepted expressions:
  * constants (e.g. 1, -1, 1.0, etc.)
  * operators (e.g. +, -, /, *, etc.)
  * variables (e.g. a, b, c, x, etc.)
+ * functions (e.g. sin, cos, exp, etc., see MathFunction)
  * 
  * The usefulness of utilizing such an abstract
  * class is that I don't have to specify the type
@@ -25,13 +23,33 @@ import java.util.Map;
  * "get" methods and such. The getPrec() method
  * deals with precedence. This is a means of
  * implementing order of operations.
+ * 
+ * What kind of expression it is, and which operator, are ints
+ * (getKind and getOp) worked out once, so checking them is an
+ * integer compare and operators can be dispatched with a switch.
+ * The kinds are numbered in the order Terms sort in: constants,
+ * then variables, then operators, then functions.
  */
 abstract public class Expr {
+	// the kinds of expression
+	public static final int CONST = 0, VARIABLE = 1, OPERATOR = 2, FUNCTION = 3;
+	// the name of each kind
+	private static final String[] TYPES = {"const", "variable", "operator", "function"};
+	// the operators, each at its opcode
+	public static final String OPERATORS = "+-*/^";
+	// the opcodes
+	public static final int ADD = 0, SUBTRACT = 1, MULTIPLY = 2, DIVIDE = 3, POWER = 4;
+	// the precedence of each operator, by opcode
+	private static final int[] PRECEDENCE = {2, 2, 3, 3, 4};
+	
+	private final int kind;
 	private String data;
+	private int op;
 	
-	public Expr (String s)
+	public Expr (int kind, String s)
 	{
-		data=s;
+		this.kind=kind;
+		setData(s);
 	}
 	
 	public String getData()
@@ -42,32 +60,48 @@ abstract public class Expr {
 	public void setData(String s)
 	{
 		data=s;
+		op=(kind == OPERATOR) ? opcode(s) : -1;
+	}
+	
+	public int getKind()
+	{
+		return kind;
+	}
+	
+	// which operator this is (see OPERATORS), or -1 if it is not one
+	public int getOp()
+	{
+		return op;
 	}
 	
 	public int getPrec()
 	{
-		Map<String, Integer> ops = new HashMap<String, Integer>();
-		ops.put("+", 2); ops.put("-", 2); ops.put("*", 3); ops.put("/", 3); ops.put("^", 4);
-		
-		if (ops.get(data) != null)
-			return ops.get(data);
-		else
-			return -1;
+		return precedence(op);
+	}
+	
+	public String getType()
+	{
+		return TYPES[kind];
 	}
 	
-	abstract public String getType();
+	// the opcode of op, or -1 if it is not an operator
+	public static int opcode(String op)
+	{
+		return (op.length() == 1) ? OPERATORS.indexOf(op.charAt(0)) : -1;
+	}
+	
+	// the precedence of an opcode (-1 for anything that is not one)
+	public static int precedence(int op)
+	{
+		return (op >= 0) ? PRECEDENCE[op] : -1;
+	}
 }
 
 class ConstExpr extends Expr
 {
 	public ConstExpr (String n)
 	{
-		super(n);
-	}
-	
-	public String getType()
-	{
-		return "const";
+		super(CONST, n);
 	}
 }
 
@@ -75,12 +109,7 @@ class OperatorExpr extends Expr
 {
 	public OperatorExpr (String s)
 	{
-		super(s);
-	}
-	
-	public String getType()
-	{
-		return "operator";
+		super(OPERATOR, s);
 	}
 }
 
@@ -88,11 +117,6 @@ class VariableExpr extends Expr
 {
 	public VariableExpr (String x)
 	{
-		super(x);
-	}
-	
-	public String getType()
-	{
-		return "variable";
+		super(VARIABLE, x);
 	}
 }
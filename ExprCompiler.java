@@ -0,0 +1,109 @@
+import java.util.ArrayDeque;
+
+/*
+ * ExprCompiler turns an AST (or infix, read by the Parser) into a
+ * CompiledExpr: each node becomes the closure that will compute it.
+ */
+class ExprCompiler
+{
+	// the deepest tree compiled to closures; deeper ones become a Program
+	private static final int MAX_DEPTH = 1000;
+
+	private ExprCompiler()
+	{
+	}
+
+	public static CompiledExpr compile(String eq, String variables)
+	{
+		return compile(Parser.parse(eq, variables), variables);
+	}
+
+	/*
+	 * Compiles an AST instead of a String. Evaluating a closure goes
+	 * a call deeper for each level of the tree, so a tree deeper than
+	 * MAX_DEPTH (a sum of thousands of terms, say) is compiled to a
+	 * Program instead, which evaluates from an array and has no limit.
+	 * A Program has its own stack, so each thread gets its own copy.
+	 */
+	public static CompiledExpr compile(Node node, String variables)
+	{
+		if (node.depth() > MAX_DEPTH)
+		{
+			Program p = Program.compile(node, variables);
+			ThreadLocal<Program> local = ThreadLocal.withInitial(p::copy);
+			return v -> local.get().eval(v);
+		}
+
+		// post-order, as in Polynomial.collect: a node comes off the stack
+		// the second time once the closures for its operands are built
+		ArrayDeque<Node> work = new ArrayDeque<Node>();
+		ArrayDeque<Boolean> visited = new ArrayDeque<Boolean>();
+		ArrayDeque<CompiledExpr> compiled = new ArrayDeque<CompiledExpr>();
+		work.push(node);
+		visited.push(false);
+		while (!work.isEmpty())
+		{
+			Node n = work.pop();
+			boolean operandsDone = visited.pop();
+			if (n.typeIs(Expr.CONST))
+			{
+				double c = Rational.toDouble(n.getData().getData());
+				compiled.push(v -> c);
+			}
+			else if (n.typeIs(Expr.VARIABLE))
+			{
+				int slot = variables.indexOf(n.getData().getData());
+				if (slot < 0) throw new RuntimeException("Unknown variable: " + n.getData().getData());
+				compiled.push(v -> v[slot]);
+			}
+			else if (!operandsDone)
+			{
+				work.push(n);
+				visited.push(true);
+				for (Node child : n.getChildren())
+				{
+					work.push(child);
+					visited.push(false);
+				}
+			}
+			else if (n.typeIs(Expr.FUNCTION))
+			{
+				compiled.push(function(MathFunction.id(n.getData().getData()), compiled.pop()));
+			}
+			else
+			{
+				CompiledExpr b = compiled.pop(), a = compiled.pop();
+				compiled.push(operator(n.getData().getData(), a, b));
+			}
+		}
+		return compiled.pop();
+	}
+
+	// a op b
+	private static CompiledExpr operator(String op, CompiledExpr a, CompiledExpr b)
+	{
+		switch (op)
+		{
+			case "+": return v -> a.eval(v) + b.eval(v);
+			case "-": return v -> a.eval(v) - b.eval(v);
+			case "*": return v -> a.eval(v) * b.eval(v);
+			case "/": return v -> a.eval(v) / b.eval(v);
+			case "^": return v -> Math.pow(a.eval(v), b.eval(v));
+			default: throw new RuntimeException("Unexpected: " + op);
+		}
+	}
+
+	// f(a), straight to the Math method
+	private static CompiledExpr function(int id, CompiledExpr a)
+	{
+		switch (id)
+		{
+			case MathFunction.SIN:  return v -> Math.sin(a.eval(v));
+			case MathFunction.COS:  return v -> Math.cos(a.eval(v));
+			case MathFunction.EXP:  return v -> Math.exp(a.eval(v));
+			case MathFunction.LOG:  return v -> Math.log(a.eval(v));
+			case MathFunction.SQRT: return v -> Math.sqrt(a.eval(v));
+			default: throw new RuntimeException("Unexpected: " + id);
+		}
+	}
+}
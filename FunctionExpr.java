@@ -0,0 +1,11 @@
+/*
+ * A call of one of the functions in MathFunction. The node's one
+ * child is the argument.
+ */
+class FunctionExpr extends Expr
+{
+	public FunctionExpr (String name)
+	{
+		super(FUNCTION, name);
+	}
+}
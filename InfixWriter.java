@@ -0,0 +1,260 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/*
+ * An InfixWriter converts an AST to its respective infix, writing
+ * it token by token into an Appendable (a StringBuilder, a Writer,
+ * a channel...) with delim between the tokens. This is a complex
+ * process due to traditional mathematical nomenclature. It contains
+ * many arbitrarily ugly rules which don't implement nicely into
+ * computers, hence the excessive if-else statements.
+ *
+ * The tree is gone over once, with an explicit stack, and nothing
+ * written is ever taken back, so the time taken is linear in the
+ * size of the output and a huge expression can go straight to a
+ * file without being a String first. The one thing that cannot be
+ * decided on the spot is whether a + or - is printed: a+-3 is
+ * written a -3, and a+0 just a. So a + or - is held back until the
+ * token after it comes along, which decides whether it is written.
+ *
+ * A function call is written as its name and its argument in
+ * brackets, sin ( x ), and never needs brackets of its own.
+ */
+public final class InfixWriter
+{
+	// constants a * leaves out (or writes as just a sign)
+	private static final String[] ONES = {"1", "1.0", "-1", "-1.0"};
+
+	private final Appendable out;
+	private final String delim;
+	private boolean started;
+
+	// a + or - waiting on the next token, or null
+	private String pending;
+
+	// the operators on the way down, each with how many of its
+	// children are printed (they are printed last to first) and
+	// whether it is in parentheses
+	private Node[] nodes = new Node[16];
+	private int[] printed = new int[16];
+	private boolean[] parens = new boolean[16];
+
+	private InfixWriter(Appendable out, String delim)
+	{
+		this.out=out;
+		this.delim=delim;
+	}
+
+	public static void write(Node node, String delim, Appendable out) throws IOException
+	{
+		InfixWriter writer = new InfixWriter(out, delim);
+		writer.expression(node);
+		writer.flush();
+	}
+
+	// the infix of node as a String
+	public static String toString(Node node, String delim)
+	{
+		StringBuilder sb = new StringBuilder();
+		try
+		{
+			write(node, delim, sb);
+		}
+		catch (IOException e)
+		{
+			// a StringBuilder never throws
+			throw new UncheckedIOException(e);
+		}
+		return sb.toString();
+	}
+
+	private void expression(Node node) throws IOException
+	{
+		Node root = written(node);
+		if (isLeaf(root))
+		{
+			leaf(root);
+			return;
+		}
+
+		int top = 0;
+		push(root, node, top++);
+		while (top > 0)
+		{
+			Node n = nodes[top-1];
+			int size = n.getChildren().size(), k = printed[top-1];
+
+			// not first child
+			if (k > 0 && k < size)
+			{
+				int i = size - k;
+				if (!(n.opIs(Expr.MULTIPLY) && (n.getChild(i-1).dataIsOr("-1","-1.0") || n.getChild(1).dataIsIn(ONES))))
+					token(n.getData().getData());
+			}
+
+			if (k == size)
+			{
+				if (parens[top-1])
+					token(")");
+				top--;
+				continue;
+			}
+
+			printed[top-1]++;
+			Node child = n.getChild(size-1-k);
+			Node shown = written(child);
+			if (isLeaf(shown))
+			{
+				leaf(shown);
+				continue;
+			}
+			if (top == nodes.length)
+			{
+				nodes = Arrays.copyOf(nodes, 2*top);
+				printed = Arrays.copyOf(printed, 2*top);
+				parens = Arrays.copyOf(parens, 2*top);
+			}
+			push(shown, child, top++);
+		}
+	}
+
+	private void leaf(Node node) throws IOException
+	{
+		if (node.getParent() != null)
+		{
+			if (!(node.getParent().opIs(Expr.MULTIPLY) && node.dataIsIn(ONES)))
+			{
+				if (!((node.getParent().opIs(Expr.ADD) || node.getParent().opIs(Expr.SUBTRACT)) && node.dataIsOr("0", "0.0")))
+				{
+					if (node.getData().getData().charAt(0)=='-')
+						drop("+");
+					token(Rational.display(node.getData().getData()));
+				}
+				else if (node.dataIsOr("0", "0.0"))
+				{
+					drop("+");
+					drop("-");
+				}
+			}
+			else if (node.dataIsOr("-1", "-1.0"))
+			{
+				drop("+");
+				token("-");
+			}
+		}
+		else
+		{
+			// the whole expression is a single constant or variable
+			token(Rational.display(node.getData().getData()));
+		}
+	}
+
+	private static boolean isLeaf(Node node)
+	{
+		return node.typeIsOr(Expr.CONST, Expr.VARIABLE);
+	}
+
+	/*
+	 * What is written for node: 1*e is written as just e, and so is
+	 * e^1, so that x/x comes out x/x rather than x^1/(x^1). A constant
+	 * is left where it is, since how it is written (a lone sign, or
+	 * nothing at all) depends on the operator above it.
+	 */
+	private static Node written(Node node)
+	{
+		for (;;)
+		{
+			Node inner = null;
+			if (node.opIs(Expr.MULTIPLY) && node.getChild(1).dataIsOr("1", "1.0"))
+				inner = node.getChild(0);
+			else if (node.opIs(Expr.MULTIPLY) && node.getChild(0).dataIsOr("1", "1.0"))
+				inner = node.getChild(1);
+			else if (node.opIs(Expr.POWER) && node.getChild(0).dataIsOr("1", "1.0"))
+				inner = node.getChild(1);
+			if (inner == null || inner.typeIs(Expr.CONST))
+				return node;
+			node = inner;
+		}
+	}
+
+	// starts printing the operator or function node, written in the place of at, as frame i of the stack
+	private void push(Node node, Node at, int i) throws IOException
+	{
+		nodes[i] = node;
+		printed[i] = 0;
+		if (node.typeIs(Expr.FUNCTION))
+		{
+			token(node.getData().getData());
+			parens[i] = true;
+		}
+		else
+		{
+			parens[i] = needsParens(node, at);
+		}
+		if (parens[i])
+			token("(");
+	}
+
+	// whether node, written in the place of at, needs brackets
+	private static boolean needsParens(Node node, Node at)
+	{
+		boolean needParens=true;
+		if (at.isRoot())
+		{
+			needParens=false;
+		}
+		else
+		{
+			if (node.comparePrec(at.getParent()) > 0)
+			{
+				needParens=false;
+			}
+			else if (node.comparePrec(at.getParent()) == 0)
+			{
+				if (at.getParent().getChild(at.getParent().getChildren().size()-1) == at)
+				{
+					needParens=false;
+				}
+				// a-(b+c) and a/(b*c) keep theirs
+				if (!(at.getParent().opIs(Expr.SUBTRACT) || at.getParent().opIs(Expr.DIVIDE)))
+				{
+					needParens=false;
+				}
+			}
+		}
+		return needParens;
+	}
+
+	// the next token: a + or - waits for the one after it, anything else lets it through first
+	private void token(String t) throws IOException
+	{
+		flush();
+		if (t.equals("+") || t.equals("-"))
+			pending = t;
+		else
+			append(t);
+	}
+
+	// the waiting + or - is not written after all, if it is op
+	private void drop(String op)
+	{
+		if (op.equals(pending))
+			pending = null;
+	}
+
+	private void flush() throws IOException
+	{
+		if (pending != null)
+			append(pending);
+		pending = null;
+	}
+
+	private void append(String t) throws IOException
+	{
+		if (started)
+			out.append(delim);
+		out.append(t);
+		started = true;
+	}
+}
@@ -0,0 +1,217 @@
+/*
+ * An Interval [lo, hi] stands for every number between lo and hi.
+ * Doing arithmetic on intervals instead of numbers gives, for an
+ * expression f and an interval X, an interval F(X) which is
+ * guaranteed to contain f(x) for every x in X. In particular, if
+ * F(X) does not contain 0 then f has no root anywhere in X.
+ *
+ * Every result is widened outwards by one ulp on each side, so
+ * that rounding error can never make an interval too narrow.
+ * Anything that cannot be bounded (dividing by an interval that
+ * contains 0, or an undefined power) gives the whole real line.
+ * Where f is not defined at all (x^0.5 for negative x) it gives
+ * EMPTY, which contains nothing.
+ *
+ * exp, log and sqrt are monotonic, so they only need the ends of
+ * the interval. sin and cos also reach 1 or -1 if the interval takes
+ * in one of their peaks or troughs; a peak that rounding leaves
+ * just outside the interval is counted as in, which only makes the
+ * result wider.
+ */
+public class Interval
+{
+	public static final Interval ENTIRE = new Interval(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+	public static final Interval EMPTY = new Interval(Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY);
+
+	private final double lo, hi;
+
+	public Interval(double lo, double hi)
+	{
+		this.lo=lo;
+		this.hi=hi;
+	}
+
+	public static Interval point(double x)
+	{
+		return new Interval(x, x);
+	}
+
+	// [lo, hi] widened by one ulp on each side
+	private static Interval outward(double lo, double hi)
+	{
+		if (Double.isNaN(lo) || Double.isNaN(hi))
+			return ENTIRE;
+		return new Interval(Math.nextDown(lo), Math.nextUp(hi));
+	}
+
+	public double getLo()
+	{
+		return lo;
+	}
+
+	public double getHi()
+	{
+		return hi;
+	}
+
+	public double mid()
+	{
+		return lo + (hi - lo)/2;
+	}
+
+	public double width()
+	{
+		return hi - lo;
+	}
+
+	public boolean contains(double x)
+	{
+		return lo <= x && x <= hi;
+	}
+
+	public boolean isEmpty()
+	{
+		return lo > hi;
+	}
+
+	public boolean isEntire()
+	{
+		return lo == Double.NEGATIVE_INFINITY && hi == Double.POSITIVE_INFINITY;
+	}
+
+	// true if other lies strictly inside this interval
+	public boolean interiorContains(Interval other)
+	{
+		return lo < other.lo && other.hi < hi;
+	}
+
+	// the intersection, or null if it is empty
+	public Interval intersect(Interval other)
+	{
+		double l = Math.max(lo, other.lo), h = Math.min(hi, other.hi);
+		return (l <= h) ? new Interval(l, h) : null;
+	}
+
+	public Interval add(Interval b)
+	{
+		if (isEmpty() || b.isEmpty())
+			return EMPTY;
+		return outward(lo + b.lo, hi + b.hi);
+	}
+
+	public Interval sub(Interval b)
+	{
+		if (isEmpty() || b.isEmpty())
+			return EMPTY;
+		return outward(lo - b.hi, hi - b.lo);
+	}
+
+	public Interval mul(Interval b)
+	{
+		if (isEmpty() || b.isEmpty())
+			return EMPTY;
+		double p1 = lo*b.lo, p2 = lo*b.hi, p3 = hi*b.lo, p4 = hi*b.hi;
+		return outward(Math.min(Math.min(p1, p2), Math.min(p3, p4)), Math.max(Math.max(p1, p2), Math.max(p3, p4)));
+	}
+
+	public Interval div(Interval b)
+	{
+		if (isEmpty() || b.isEmpty())
+			return EMPTY;
+		if (b.contains(0))
+			return ENTIRE;
+		double q1 = lo/b.lo, q2 = lo/b.hi, q3 = hi/b.lo, q4 = hi/b.hi;
+		return outward(Math.min(Math.min(q1, q2), Math.min(q3, q4)), Math.max(Math.max(q1, q2), Math.max(q3, q4)));
+	}
+
+	public Interval pow(Interval b)
+	{
+		if (isEmpty() || b.isEmpty())
+			return EMPTY;
+
+		// a whole-number exponent works for any base
+		if (b.lo == b.hi && b.lo == Math.rint(b.lo) && Math.abs(b.lo) <= Integer.MAX_VALUE)
+		{
+			int n = (int) b.lo;
+			if (n == 0)
+				return point(1);
+			if (n < 0)
+				return point(1).div(pow(point(-n)));
+
+			double a1 = Math.pow(lo, n), a2 = Math.pow(hi, n);
+			if (n % 2 == 1)
+				return outward(a1, a2);
+			if (contains(0))
+				return outward(0, Math.max(a1, a2));
+			return outward(Math.min(a1, a2), Math.max(a1, a2));
+		}
+
+		// otherwise a^b is only defined for a >= 0, where it is monotonic in a and in b
+		if (hi < 0)
+			return EMPTY;
+		double a = Math.max(lo, 0);
+		double p1 = Math.pow(a, b.lo), p2 = Math.pow(a, b.hi), p3 = Math.pow(hi, b.lo), p4 = Math.pow(hi, b.hi);
+		return outward(Math.min(Math.min(p1, p2), Math.min(p3, p4)), Math.max(Math.max(p1, p2), Math.max(p3, p4)));
+	}
+
+	public Interval exp()
+	{
+		if (isEmpty())
+			return EMPTY;
+		return outward(Math.exp(lo), Math.exp(hi));
+	}
+
+	// the natural log, defined for x > 0
+	public Interval log()
+	{
+		if (isEmpty() || hi <= 0)
+			return EMPTY;
+		return outward(lo <= 0 ? Double.NEGATIVE_INFINITY : Math.log(lo), Math.log(hi));
+	}
+
+	public Interval sqrt()
+	{
+		if (isEmpty() || hi < 0)
+			return EMPTY;
+		return outward(Math.sqrt(Math.max(lo, 0)), Math.sqrt(hi));
+	}
+
+	public Interval sin()
+	{
+		return periodic(Math.sin(lo), Math.sin(hi), Math.PI/2);
+	}
+
+	public Interval cos()
+	{
+		return periodic(Math.cos(lo), Math.cos(hi), 0);
+	}
+
+	// sin or cos, given its values at the ends and where it peaks (the troughs are pi further on)
+	private Interval periodic(double a, double b, double peak)
+	{
+		if (isEmpty())
+			return EMPTY;
+		if (!(width() < 2*Math.PI))
+			return new Interval(-1, 1);
+		double l = Math.min(a, b), h = Math.max(a, b);
+		if (reaches(peak))
+			h = 1;
+		if (reaches(peak + Math.PI))
+			l = -1;
+		Interval r = outward(l, h);
+		return new Interval(Math.max(r.lo, -1), Math.min(r.hi, 1));
+	}
+
+	// whether peak + 2k*pi is in the interval for some whole k (erring on the side of yes)
+	private boolean reaches(double peak)
+	{
+		double k = Math.ceil((lo - peak)/(2*Math.PI) - 1e-9);
+		return peak + 2*Math.PI*k <= hi + 1e-9*Math.max(1, Math.abs(hi));
+	}
+
+	@Override
+	public String toString()
+	{
+		return "[" + lo + ", " + hi + "]";
+	}
+}
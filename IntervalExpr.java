@@ -0,0 +1,97 @@
+import java.util.ArrayDeque;
+
+/*
+ * An IntervalExpr is an AST compiled (once) into interval closures,
+ * in the same way as CompiledExpr does for plain doubles.
+ */
+interface IntervalExpr
+{
+	// the deepest tree that can be compiled
+	int MAX_DEPTH = 1000;
+
+	Interval eval(Interval x);
+
+	/*
+	 * Evaluating a closure goes a call deeper for each level of the
+	 * tree, so a tree deeper than MAX_DEPTH is refused up front rather
+	 * than left to overflow the stack in the middle of a search.
+	 */
+	static IntervalExpr compile(Node node, String variable)
+	{
+		int depth = node.depth();
+		if (depth > MAX_DEPTH)
+			throw new RuntimeException("Too deeply nested for interval arithmetic: depth " + depth + ", at most " + MAX_DEPTH);
+
+		// post-order, as in ExprCompiler.compile
+		ArrayDeque<Node> work = new ArrayDeque<Node>();
+		ArrayDeque<Boolean> visited = new ArrayDeque<Boolean>();
+		ArrayDeque<IntervalExpr> compiled = new ArrayDeque<IntervalExpr>();
+		work.push(node);
+		visited.push(false);
+		while (!work.isEmpty())
+		{
+			Node n = work.pop();
+			boolean operandsDone = visited.pop();
+			if (n.typeIs(Expr.CONST))
+			{
+				double c = Rational.toDouble(n.getData().getData());
+				Interval k = Interval.point(c);
+				compiled.push(x -> k);
+			}
+			else if (n.typeIs(Expr.VARIABLE))
+			{
+				if (!n.dataIs(variable))
+					throw new RuntimeException("Unknown variable: " + n.getData().getData());
+				compiled.push(x -> x);
+			}
+			else if (!operandsDone)
+			{
+				work.push(n);
+				visited.push(true);
+				for (Node child : n.getChildren())
+				{
+					work.push(child);
+					visited.push(false);
+				}
+			}
+			else if (n.typeIs(Expr.FUNCTION))
+			{
+				compiled.push(function(n.getData().getData(), compiled.pop()));
+			}
+			else
+			{
+				IntervalExpr b = compiled.pop(), a = compiled.pop();
+				compiled.push(operator(n.getData().getData(), a, b));
+			}
+		}
+		return compiled.pop();
+	}
+
+	// name(a)
+	private static IntervalExpr function(String name, IntervalExpr a)
+	{
+		switch (MathFunction.id(name))
+		{
+			case MathFunction.SIN:  return x -> a.eval(x).sin();
+			case MathFunction.COS:  return x -> a.eval(x).cos();
+			case MathFunction.EXP:  return x -> a.eval(x).exp();
+			case MathFunction.LOG:  return x -> a.eval(x).log();
+			case MathFunction.SQRT: return x -> a.eval(x).sqrt();
+			default: throw new RuntimeException("Unexpected: " + name);
+		}
+	}
+
+	// a op b
+	private static IntervalExpr operator(String op, IntervalExpr a, IntervalExpr b)
+	{
+		switch (op)
+		{
+			case "+": return x -> a.eval(x).add(b.eval(x));
+			case "-": return x -> a.eval(x).sub(b.eval(x));
+			case "*": return x -> a.eval(x).mul(b.eval(x));
+			case "/": return x -> a.eval(x).div(b.eval(x));
+			case "^": return x -> a.eval(x).pow(b.eval(x));
+			default: throw new RuntimeException("Unexpected: " + op);
+		}
+	}
+}
@@ -0,0 +1,219 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * IntervalSolver finds every root of f in a domain [lo, hi] by
+ * branch and bound on intervals, rather than hoping that one of a
+ * set of guesses happens to converge to each root.
+ *
+ * For a box X:
+ * - if F(X) does not contain 0, X has no root and is dropped
+ * - if F'(X) does not contain 0, f is monotonic on X and the
+ *   interval Newton step N = m - f(m)/F'(X) (m the middle of X)
+ *   is tried. If N lies strictly inside X, X is proven to hold
+ *   exactly one root, which is then narrowed down by repeating the
+ *   step. If N misses X, there is no root. Otherwise X shrinks to
+ *   X n N.
+ * - anything else is split in half, and the halves are searched
+ *   in parallel (fork/join).
+ *
+ * Boxes narrower than the tolerance which still cannot be settled
+ * (e.g. double roots, where F'(X) always contains 0) are reported
+ * if f is small or changes sign there, just without the proof.
+ *
+ * A box with F(X) = [0, 0] (give or take the outward rounding) is
+ * all roots, f being zero throughout as for 0*sin(x), so it is kept
+ * as such rather than split forever.
+ * The total number of boxes is capped so the cost stays bounded;
+ * boxes still unsearched when the cap is hit are kept too, so the
+ * caller can say that the search is incomplete and where.
+ */
+public class IntervalSolver extends RecursiveAction
+{
+	private static final long serialVersionUID = 1L;
+
+	// boxes narrower than this (relative) are not split
+	public static final double WIDTH_TOL = 1e-6;
+
+	// residual for an unproven box to count as a root
+	public static final double RESIDUAL_TOL = 1e-9;
+
+	// most boxes one search will look at
+	public static final int MAX_BOXES = 1000000;
+
+	// most Newton steps spent narrowing a proven root
+	private static final int MAX_NEWTON = 50;
+
+	private final IntervalExpr f, df;
+	private final Interval box;
+	private final Result result;
+
+	private IntervalSolver(IntervalExpr f, IntervalExpr df, Interval box, Result result)
+	{
+		this.f=f;
+		this.df=df;
+		this.box=box;
+		this.result=result;
+	}
+
+	/*
+	 * Searches [lo, hi] for the roots of f. df is the derivative
+	 * of f, or null, in which case boxes can only be pruned and
+	 * split (never proven).
+	 */
+	public static Result isolate(IntervalExpr f, IntervalExpr df, double lo, double hi)
+	{
+		Result result = new Result();
+		ForkJoinPool.commonPool().invoke(new IntervalSolver(f, df, new Interval(lo, hi), result));
+		return result;
+	}
+
+	@Override
+	protected void compute()
+	{
+		Interval x = box;
+		int iterations = 0;
+
+		while (result.boxes.incrementAndGet() <= MAX_BOXES)
+		{
+			Interval fx = f.eval(x);
+			if (!fx.contains(0))
+				return;
+			if (fx.getLo() >= -Double.MIN_NORMAL && fx.getHi() <= Double.MIN_NORMAL)
+			{
+				result.zeros.add(x);
+				return;
+			}
+
+			double m = x.mid();
+			if (x.width() <= WIDTH_TOL*Math.max(1, Math.abs(m)))
+			{
+				candidate(x, fx, iterations);
+				return;
+			}
+
+			Interval dx = (df != null) ? df.eval(x) : Interval.ENTIRE;
+			if (dx.contains(0))
+				break;
+
+			// interval Newton step
+			Interval fm = f.eval(Interval.point(m));
+			Interval n = Interval.point(m).sub(fm.div(dx));
+			iterations++;
+			if (x.interiorContains(n))
+			{
+				proven(n, iterations);
+				return;
+			}
+
+			Interval next = x.intersect(n);
+			if (next == null)
+				return;
+			if (next.width() > 0.5*x.width())
+				break;
+			x = next;
+		}
+		if (result.boxes.get() > MAX_BOXES)
+		{
+			result.unsearched.add(x);
+			return;
+		}
+
+		double m = x.mid();
+		invokeAll(new IntervalSolver(f, df, new Interval(x.getLo(), m), result),
+				  new IntervalSolver(f, df, new Interval(m, x.getHi()), result));
+	}
+
+	/*
+	 * x is known to hold exactly one root. Each further Newton
+	 * step keeps it inside (and usually doubles the correct digits),
+	 * until the box stops shrinking.
+	 */
+	private void proven(Interval x, int iterations)
+	{
+		for (int i = 0; i < MAX_NEWTON; i++)
+		{
+			double m = x.mid();
+			Interval n = Interval.point(m).sub(f.eval(Interval.point(m)).div(df.eval(x)));
+			Interval next = x.intersect(n);
+			iterations++;
+			if (next == null || next.width() >= x.width())
+				break;
+			x = next;
+		}
+
+		double m = x.mid();
+		result.roots.add(new Root(Double.NaN, m, f.eval(Interval.point(m)).mid(), iterations, Root.Status.VERIFIED, true));
+	}
+
+	// a box too narrow to split that could still hold a root
+	private void candidate(Interval x, Interval fx, int iterations)
+	{
+		double m = x.mid();
+		double fm = f.eval(Interval.point(m)).mid();
+		double fl = f.eval(Interval.point(x.getLo())).mid();
+		double fh = f.eval(Interval.point(x.getHi())).mid();
+
+		boolean signChange = !fx.isEntire() && fl*fh <= 0;
+		if (Math.abs(fm) <= RESIDUAL_TOL || signChange)
+			result.roots.add(new Root(Double.NaN, m, fm, iterations, Root.Status.CONVERGED, signChange));
+	}
+
+	/*
+	 * What one search found, filled in by all of its tasks: the
+	 * roots, the boxes f is zero throughout, and the boxes the
+	 * search never got to.
+	 */
+	public static class Result
+	{
+		private final ConcurrentLinkedQueue<Root> roots = new ConcurrentLinkedQueue<Root>();
+		private final ConcurrentLinkedQueue<Interval> zeros = new ConcurrentLinkedQueue<Interval>();
+		private final ConcurrentLinkedQueue<Interval> unsearched = new ConcurrentLinkedQueue<Interval>();
+		private final AtomicInteger boxes = new AtomicInteger();
+
+		// the roots in ascending order
+		public Root[] getRoots()
+		{
+			Root[] sorted = roots.toArray(new Root[0]);
+			Arrays.sort(sorted, (a, b) -> Double.compare(a.getValue(), b.getValue()));
+			return sorted;
+		}
+
+		// the stretches f is zero on throughout, in ascending order with touching ones joined
+		public Interval[] getZeros()
+		{
+			return join(zeros);
+		}
+
+		// whether every box was searched before MAX_BOXES ran out
+		public boolean isComplete()
+		{
+			return unsearched.isEmpty();
+		}
+
+		// the stretches left unsearched, in ascending order with touching ones joined
+		public Interval[] getUnsearched()
+		{
+			return join(unsearched);
+		}
+
+		private static Interval[] join(ConcurrentLinkedQueue<Interval> boxes)
+		{
+			Interval[] sorted = boxes.toArray(new Interval[0]);
+			Arrays.sort(sorted, (a, b) -> Double.compare(a.getLo(), b.getLo()));
+
+			int n = 0;
+			for (Interval x : sorted)
+			{
+				if (n > 0 && x.getLo() <= sorted[n-1].getHi())
+					sorted[n-1] = new Interval(sorted[n-1].getLo(), Math.max(sorted[n-1].getHi(), x.getHi()));
+				else
+					sorted[n++] = x;
+			}
+			return Arrays.copyOf(sorted, n);
+		}
+	}
+}
@@ -0,0 +1,114 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * The Lexer reads an infix expression into Tokens in a single pass
+ * over the characters, so reading it takes time linear in its
+ * length and allocates nothing but the tokens themselves.
+ *
+ * Operators and brackets are one character each. Anything else up
+ * to the next operator, bracket or space is an operand: a number if
+ * it is all digits and decimal points, and a symbol otherwise. A
+ * number may end in an exponent, as in 2.5E-7 or 1e5, which is the
+ * one place a sign belongs to an operand. Any other "-" is an
+ * operator; whether it negates or subtracts is up to the Parser.
+ */
+public final class Lexer
+{
+	private final CharSequence input;
+	private int pos;
+
+	public Lexer(CharSequence input)
+	{
+		this.input=input;
+	}
+
+	public static List<Token> tokenize(CharSequence input)
+	{
+		List<Token> tokens = new ArrayList<Token>();
+		Lexer lexer = new Lexer(input);
+		for (Token t = lexer.next(); t != null; t = lexer.next())
+			tokens.add(t);
+		return tokens;
+	}
+
+	// the next token, or null at the end of the input
+	public Token next()
+	{
+		while (pos < input.length() && Character.isWhitespace(input.charAt(pos)))
+			pos++;
+		if (pos == input.length())
+			return null;
+
+		int start = pos;
+		char c = input.charAt(pos);
+		int op = Expr.OPERATORS.indexOf(c);
+		if (op >= 0)
+		{
+			pos++;
+			return Token.operator(op, start);
+		}
+		if (c == '(' || c == ')')
+		{
+			pos++;
+			return Token.bracket(c == '(', start);
+		}
+
+		// an operand: a number if it is all digits and decimal points,
+		// with an exponent if it has one (2.5E-7), and a symbol otherwise
+		if (isNumeric(c))
+		{
+			while (pos < input.length() && isNumeric(input.charAt(pos)))
+				pos++;
+			exponent();
+		}
+		boolean number = pos > start && (pos == input.length() || !isOperand(input.charAt(pos)));
+		while (pos < input.length() && isOperand(input.charAt(pos)))
+			pos++;
+		String text = input.subSequence(start, pos).toString();
+		if (!number)
+			return Token.symbol(text, start);
+		try
+		{
+			return Token.number(text, Rational.toDouble(text), start);
+		}
+		catch (NumberFormatException e)
+		{
+			throw new ParseException("Malformed number " + text, start);
+		}
+	}
+
+	// reads the exponent of a number, e or E, a sign and digits, if there is one there
+	private void exponent()
+	{
+		int mark = pos;
+		if (pos < input.length() && (input.charAt(pos) == 'e' || input.charAt(pos) == 'E'))
+			pos++;
+		else
+			return;
+		if (pos < input.length() && (input.charAt(pos) == '+' || input.charAt(pos) == '-'))
+			pos++;
+		if (pos == input.length() || !isDigit(input.charAt(pos)))
+		{
+			pos = mark;
+			return;
+		}
+		while (pos < input.length() && isDigit(input.charAt(pos)))
+			pos++;
+	}
+
+	private static boolean isDigit(char c)
+	{
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isNumeric(char c)
+	{
+		return (c >= '0' && c <= '9') || c == '.';
+	}
+
+	private static boolean isOperand(char c)
+	{
+		return !Character.isWhitespace(c) && Expr.OPERATORS.indexOf(c) < 0 && c != '(' && c != ')';
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * MathFunction is the registry of the functions an expression can
+ * call: sin, cos, exp, log (the natural log) and sqrt. Each has an
+ * id, its place in NAMES, and everything that evaluates expressions
+ * dispatches on the id with a switch straight to the Math method,
+ * so the JIT sees Math.sin and friends (its intrinsics) rather than
+ * a call through a lookup table.
+ *
+ * In the AST a call is a FunctionExpr node named after the function,
+ * with its argument as its one child. Adding a function means adding
+ * it here and a case for it wherever there is a switch on the id:
+ * apply, Interval, the evaluators, and jCAS.differentiate.
+ */
+public final class MathFunction
+{
+	// the functions, each at its id
+	public static final int SIN = 0, COS = 1, EXP = 2, LOG = 3, SQRT = 4;
+	// the name of each function, by id
+	private static final String[] NAMES = {"sin", "cos", "exp", "log", "sqrt"};
+
+	private MathFunction()
+	{
+	}
+
+	// the id of the function called name, or -1 if there is none
+	public static int id(String name)
+	{
+		for (int i = 0; i < NAMES.length; i++)
+		{
+			if (NAMES[i].equals(name))
+				return i;
+		}
+		return -1;
+	}
+
+	public static String name(int id)
+	{
+		return NAMES[id];
+	}
+
+	/*
+	 * The id of the function whose name starts at pos in s (and is
+	 * not just the start of a longer word), or -1. This is for
+	 * jGUI, which reads its input one character at a time.
+	 */
+	public static int at(CharSequence s, int pos)
+	{
+		for (int i = 0; i < NAMES.length; i++)
+		{
+			int end = pos + NAMES[i].length();
+			if (end <= s.length() && startsWith(s, pos, NAMES[i]) && (end == s.length() || !Character.isLetter(s.charAt(end))))
+				return i;
+		}
+		return -1;
+	}
+
+	private static boolean startsWith(CharSequence s, int pos, String name)
+	{
+		for (int k = 0; k < name.length(); k++)
+		{
+			if (s.charAt(pos + k) != name.charAt(k))
+				return false;
+		}
+		return true;
+	}
+
+	public static double apply(int id, double x)
+	{
+		switch (id)
+		{
+			case SIN:  return Math.sin(x);
+			case COS:  return Math.cos(x);
+			case EXP:  return Math.exp(x);
+			case LOG:  return Math.log(x);
+			case SQRT: return Math.sqrt(x);
+			default:   throw new RuntimeException("Unknown function: " + id);
+		}
+	}
+
+	/*
+	 * The function of a constant, as a constant, for constant folding.
+	 * The result is exact when it can be (sin(0), exp(0), log(1),
+	 * sqrt(9/4)...) and otherwise taken at face value as a double,
+	 * like a fractional power in jCAS.operate. Returns null where the
+	 * function is undefined (log(0), sqrt(-1)), so that it is left as
+	 * it is rather than folded to NaN.
+	 */
+	public static String fold(int id, String c)
+	{
+		double result = apply(id, Rational.toDouble(c));
+		if (Double.isNaN(result) || Double.isInfinite(result))
+			return null;
+		return Rational.valueOf(result).toString();
+	}
+}
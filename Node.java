@@ -1,3 +1,4 @@
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -19,11 +20,22 @@ import java.util.List;
  * 				x
  * 				-3
  * 
+ * Note the order: an operator's first child is its right operand
+ * and its second child its left operand, so 2-x has x as child 0
+ * and 2 as child 1. A function's one child is its argument. Every
+ * walk over the tree (the evaluators, Polynomial, differentiate...)
+ * relies on this.
+ * 
  * Most methods in this class are just "get" methods
  * or other similar methods for the convenience of programming.
  */
 public class Node {
 	private List<Node> children = new ArrayList<Node>();
+	
+	/*
+	 * Kept up to date by addChild, setChildren and setNode, so a
+	 * rewrite never has to re-link the whole tree afterwards.
+	 */
 	private Node parent;
 	private Expr data;
 	
@@ -62,6 +74,7 @@ public class Node {
 		for (Node child : c)
 		{
 			children.add(child);
+			child.setParent(this);
 		}
 	}
 	
@@ -75,15 +88,44 @@ public class Node {
 		parent=p;
 	}
 	
+	/*
+	 * Makes this node a copy of node, in place: it takes on node's
+	 * data and children (which become its children) but stays where
+	 * it is in the tree, under its own parent.
+	 */
 	public Node setNode(Node node)
 	{
-		parent=node.getParent();
 		data=node.getData();
 		this.setChildren(node.getChildren());
 		
 		return this;
 	}
 	
+	/*
+	 * Returns a deep copy of this subtree. Unlike setNode,
+	 * the copy shares no Nodes with the original, so it can
+	 * be rewritten without disturbing the original tree.
+	 */
+	public Node copy()
+	{
+		// each original on the stack is paired with its copy, whose children are still to come
+		ArrayDeque<Node> originals = new ArrayDeque<Node>(), copies = new ArrayDeque<Node>();
+		Node root = new Node(data);
+		originals.push(this);
+		copies.push(root);
+		while (!originals.isEmpty())
+		{
+			Node original = originals.pop(), copy = copies.pop();
+			for (Node child : original.children)
+			{
+				Node c = copy.addChild(new Node(child.data));
+				originals.push(child);
+				copies.push(c);
+			}
+		}
+		return root;
+	}
+	
 	public Node addChild(Node node)
 	{
 		this.getChildren().add(node);
@@ -91,19 +133,26 @@ public class Node {
 		return node;
 	}
 	
-	public boolean typeIs(String type)
+	// kind is one of Expr.CONST, Expr.VARIABLE, Expr.OPERATOR and Expr.FUNCTION
+	public boolean typeIs(int kind)
 	{
-		return this.getData().getType().equals(type);
+		return data.getKind() == kind;
 	}
 	
-	public boolean typeIsOr(String a, String b)
+	public boolean typeIsOr(int a, int b)
 	{
 		return (this.typeIs(a) || this.typeIs(b));
 	}
 	
 	public boolean sameType(Node node)
 	{
-		return this.getData().getType().equals(node.getData().getType());
+		return data.getKind() == node.getData().getKind();
+	}
+	
+	// op is an opcode, such as Expr.ADD
+	public boolean opIs(int op)
+	{
+		return data.getOp() == op;
 	}
 	
 	public boolean dataIs(String data)
@@ -133,10 +182,10 @@ public class Node {
 	
 	public int comparePrec(Node node)
 	{
-		return this.getData().getPrec() - node.getData().getPrec();
+		return data.getPrec() - node.getData().getPrec();
 	}
 	
-	public boolean hasChildOfType(String type)
+	public boolean hasChildOfType(int type)
 	{
 		for (Node node : children)
 		{
@@ -146,7 +195,7 @@ public class Node {
 		return false;
 	}
 	
-	public int getChildOfTypeInd(String type)
+	public int getChildOfTypeInd(int type)
 	{
 		// returns index of child of type "type"
 		for (int i = 0; i < children.size(); i++)
@@ -188,7 +237,7 @@ public class Node {
 		return -1;
 	}
 	
-	public Node getChildOfType(String type)
+	public Node getChildOfType(int type)
 	{
 		// returns index of child of type "type"
 		for (int i = 0; i < children.size(); i++)
@@ -229,21 +278,22 @@ public class Node {
 	
 	public boolean isSame(Node node)
 	{
-		if (node.sameData(this))
+		// pairs of nodes still to compare, one from each tree
+		ArrayDeque<Node> mine = new ArrayDeque<Node>(), theirs = new ArrayDeque<Node>();
+		mine.push(this);
+		theirs.push(node);
+		while (!mine.isEmpty())
 		{
-			if (children.size() == 0 && node.getChildren().size() == 0)
+			Node a = mine.pop(), b = theirs.pop();
+			if (!b.sameData(a) || a.children.size() != b.children.size())
+				return false;
+			for (int i = 0; i < a.children.size(); i++)
 			{
-				return true;
-			}
-			else
-			{
-				return node.getChild(0).isSame(this.getChild(0)) && node.getChild(1).isSame(this.getChild(1));
+				mine.push(a.getChild(i));
+				theirs.push(b.getChild(i));
 			}
 		}
-		else
-		{
-			return false;
-		}
+		return true;
 	}
 	
 	public boolean isRoot()
@@ -255,4 +305,21 @@ public class Node {
 	{
 		return children.size()!=0;
 	}
+	
+	// the number of nodes on the longest path down from this one, a level at a time
+	public int depth()
+	{
+		int depth = 0;
+		List<Node> level = new ArrayList<Node>();
+		level.add(this);
+		while (!level.isEmpty())
+		{
+			depth++;
+			List<Node> next = new ArrayList<Node>();
+			for (Node node : level)
+				next.addAll(node.children);
+			level = next;
+		}
+		return depth;
+	}
 }
@@ -0,0 +1,23 @@
+/*
+ * A ParseException is what the Lexer and Parser throw for input
+ * they cannot make sense of. Besides the message, it says where in
+ * the input the problem is (getOffset, counting from 0), so it can
+ * be pointed out to the user.
+ */
+public class ParseException extends RuntimeException
+{
+	private static final long serialVersionUID = 1L;
+
+	private final int offset;
+
+	public ParseException(String message, int offset)
+	{
+		super(message + " at " + offset);
+		this.offset=offset;
+	}
+
+	public int getOffset()
+	{
+		return offset;
+	}
+}
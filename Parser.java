@@ -0,0 +1,223 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/*
+ * The Parser turns infix into an AST in one pass over the Lexer's
+ * tokens. It is an operator precedence parser: each operator has a
+ * precedence (see Token), and an operator waits on a stack until one
+ * that binds no tighter comes along, so "1+2*3" comes out as 1+(2*3)
+ * without any intermediate form.
+ *
+ * - + - * / group to the left, and ^ to the right (a^b^c is a^(b^c)).
+ * - A "-" in front of an operand is negation: "-3" is the constant
+ *   -3, and "-x" is -1*x. It binds tighter than * and / but not as
+ *   tightly as ^, so -x^2 is -(x^2).
+ * - A "+" in front of an operand does nothing.
+ * - A function name (see MathFunction) followed by a bracketed
+ *   expression is a call: sin(x), sqrt(x^2+1). The brackets are
+ *   needed, so sin(x)^2 is the square of sin(x).
+ *
+ * Brackets, calls and operators waiting on their right operand all
+ * go on the same explicit stack, so however deeply the input nests
+ * it is read in a loop, limited only by the heap.
+ *
+ * Anything else throws a ParseException saying where the problem is.
+ */
+public final class Parser
+{
+	// how tightly a leading "-" binds: tighter than * and /, looser than ^
+	private static final int NEGATION = 3;
+
+	// what is waiting on the stack: an operator, a negation, a "(" or a function's "("
+	private static final int BINARY = 0, NEGATE = 1, BRACKET = 2, CALL = 3;
+
+	private final Lexer lexer;
+	private final String variables;
+	private final int length;
+
+	// the next token, not yet used (null at the end)
+	private Token token;
+
+	// the operands read so far, and what is waiting on them: each with
+	// its token and, for an operator or negation, the precedence its
+	// right operand reads up to (operators binding tighter than it)
+	private final ArrayDeque<Node> operands = new ArrayDeque<Node>();
+	private Token[] waiting = new Token[16];
+	private int[] kinds = new int[16], limits = new int[16];
+	private int top;
+	// how many brackets and calls are open
+	private int open;
+
+	private Parser(CharSequence infix, String variables)
+	{
+		lexer = new Lexer(infix);
+		this.variables=variables;
+		length = infix.length();
+		token = lexer.next();
+	}
+
+	/*
+	 * The AST for infix, in which the letters in variables are
+	 * variables. Operands are in the order described in Node.
+	 */
+	public static Node parse(CharSequence infix, String variables)
+	{
+		Parser parser = new Parser(infix, variables);
+		parser.expression();
+		return parser.operands.pop();
+	}
+
+	// reads the whole input, alternating between operands and the operators between them
+	private void expression()
+	{
+		for (;;)
+		{
+			operand();
+			while (token != null && token.is(Token.RIGHT) && top > 0)
+				close();
+			if (token == null)
+			{
+				reduce(0);
+				if (within())
+					throw new ParseException("Expected )", length);
+				return;
+			}
+			if (!token.is(Token.OPERATOR))
+				throw (within()) ? new ParseException("Expected )", token.getOffset()) : unexpected();
+
+			Token op = token;
+			token = lexer.next();
+			reduce(op.precedence());
+			// a right operand of a left-associative operator stops at the next one like it
+			push(BINARY, op, op.isRightAssociative() ? op.precedence() - 1 : op.precedence());
+		}
+	}
+
+	/*
+	 * Reads an operand onto the operand stack: a number, a variable,
+	 * or a constant or variable after any number of signs, "(" and
+	 * function calls, which are left on the stack to be finished.
+	 */
+	private void operand()
+	{
+		for (;;)
+		{
+			if (token == null)
+				throw new ParseException("Expected a number, variable or (", length);
+
+			Token t = token;
+			token = lexer.next();
+			switch (t.getKind())
+			{
+				case Token.NUMBER:
+					operands.push(new Node(new ConstExpr(t.getText())));
+					return;
+				case Token.SYMBOL:
+					if (MathFunction.id(t.getText()) >= 0)
+					{
+						if (token == null || !token.is(Token.LEFT))
+							throw new ParseException("Expected ( after " + t.getText(), (token == null) ? length : token.getOffset());
+						token = lexer.next();
+						push(CALL, t, 0);
+						break;
+					}
+					if (variables.indexOf(t.getText()) < 0)
+						throw new ParseException("Unknown variable " + t.getText(), t.getOffset());
+					operands.push(new Node(new VariableExpr(t.getText())));
+					return;
+				case Token.LEFT:
+					push(BRACKET, t, 0);
+					break;
+				case Token.OPERATOR:
+					if (t.getText().equals("+"))
+						break;
+					if (t.getText().equals("-"))
+					{
+						push(NEGATE, t, NEGATION);
+						break;
+					}
+					throw new ParseException("Unexpected " + t.getText(), t.getOffset());
+				default:
+					throw new ParseException("Unexpected " + t.getText(), t.getOffset());
+			}
+		}
+	}
+
+	// finishes the innermost bracket (or call) at the ")" which is the next token
+	private void close()
+	{
+		reduce(0);
+		if (!within())
+			throw unexpected();
+		token = lexer.next();
+		top--;
+		open--;
+		if (kinds[top] == CALL)
+		{
+			Node call = new Node(new FunctionExpr(waiting[top].getText()));
+			call.addChild(operands.pop());
+			operands.push(call);
+		}
+	}
+
+	// finishes every operator and negation on top of the stack which does not bind more loosely than precedence
+	private void reduce(int precedence)
+	{
+		while (top > 0 && kinds[top-1] <= NEGATE && precedence <= limits[top-1])
+		{
+			top--;
+			Node right = operands.pop();
+			if (kinds[top] == NEGATE)
+				operands.push(negate(right));
+			else
+				operands.push(operator(waiting[top].getText(), operands.pop(), right));
+		}
+	}
+
+	// whether a bracket or call is still open
+	private boolean within()
+	{
+		return open > 0;
+	}
+
+	private void push(int kind, Token t, int limit)
+	{
+		if (top == kinds.length)
+		{
+			waiting = Arrays.copyOf(waiting, 2*top);
+			kinds = Arrays.copyOf(kinds, 2*top);
+			limits = Arrays.copyOf(limits, 2*top);
+		}
+		if (kind >= BRACKET)
+			open++;
+		waiting[top] = t;
+		kinds[top] = kind;
+		limits[top] = limit;
+		top++;
+	}
+
+	// -node, as a constant if node is one and -1*node otherwise
+	private static Node negate(Node node)
+	{
+		if (node.typeIs(Expr.CONST))
+		{
+			String c = node.getData().getData();
+			return new Node(new ConstExpr(c.startsWith("-") ? c.substring(1) : "-" + c));
+		}
+		return operator("*", new Node(new ConstExpr("-1")), node);
+	}
+
+	// left op right
+	private static Node operator(String op, Node left, Node right)
+	{
+		Node node = new Node(new OperatorExpr(op));
+		node.addChild(right);
+		node.addChild(left);
+		return node;
+	}
+
+	private ParseException unexpected()
+	{
+		return new ParseException("Unexpected " + token.getText(), token.getOffset());
+	}
+}
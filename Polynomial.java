@@ -0,0 +1,537 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/*
+ * Polynomial is the fast path of solve. When an equation turns out
+ * to be a polynomial in the variable being solved for, there is no
+ * need for hundreds of blind Newton runs: its coefficients are read
+ * straight off the AST and every real root is found in one pass.
+ *
+ * Coefficients are plain double arrays, lowest power first, so
+ * c = {-1, 0, 1} is x^2 - 1.
+ *
+ * Degrees up to 4 are solved in closed form (quadratic formula,
+ * Cardano, Ferrari). Higher degrees use the Aberth method, which
+ * moves approximations of all n (complex) roots at the same time.
+ * Every real root found either way is then polished with a few
+ * Newton steps on the polynomial itself.
+ */
+public class Polynomial
+{
+	// largest degree the fast path will take on
+	public static final int MAX_DEGREE = 64;
+
+	// iteration budget for the Aberth method
+	public static final int MAX_ITERATIONS = 500;
+
+	// |imaginary part| below which a root counts as real
+	public static final double REAL_TOL = 1e-6;
+
+	// how close Aberth roots must be to be one multiple root
+	public static final double CLUSTER_TOL = 0.1;
+
+	/*
+	 * Returns the coefficients of the AST as a polynomial in
+	 * variable, or null if it is not one (another variable, a
+	 * division by the variable, a non-integer power, a function
+	 * and so on).
+	 */
+	public static double[] coefficients(Node node, String variable)
+	{
+		double[] c = collect(node, variable);
+		return (c == null) ? null : trim(c);
+	}
+
+	private static double[] collect(Node node, String variable)
+	{
+		// post-order, as in SparsePolynomial.of: an operator comes off the
+		// stack the second time, once both its operands have coefficients
+		ArrayDeque<Node> work = new ArrayDeque<Node>();
+		ArrayDeque<Boolean> visited = new ArrayDeque<Boolean>();
+		ArrayDeque<double[]> coefficients = new ArrayDeque<double[]>();
+		work.push(node);
+		visited.push(false);
+		while (!work.isEmpty())
+		{
+			Node n = work.pop();
+			boolean operandsDone = visited.pop();
+			if (n.typeIs(Expr.CONST))
+			{
+				coefficients.push(new double[]{Rational.toDouble(n.getData().getData())});
+			}
+			else if (n.typeIs(Expr.VARIABLE))
+			{
+				if (!n.dataIs(variable))
+					return null;
+				coefficients.push(new double[]{0, 1});
+			}
+			else if (n.typeIs(Expr.FUNCTION))
+			{
+				return null;
+			}
+			else if (operandsDone)
+			{
+				double[] b = coefficients.pop(), a = coefficients.pop();
+				double[] c = combine(n.getData().getData(), a, b);
+				// once any part is not a polynomial, neither is the whole
+				if (c == null)
+					return null;
+				coefficients.push(c);
+			}
+			else
+			{
+				work.push(n);
+				visited.push(true);
+				work.push(n.getChild(0));
+				visited.push(false);
+				work.push(n.getChild(1));
+				visited.push(false);
+			}
+		}
+		return coefficients.pop();
+	}
+
+	// a op b, or null if that is not a polynomial
+	private static double[] combine(String op, double[] a, double[] b)
+	{
+		switch (op)
+		{
+			case "+": return add(a, b, 1);
+			case "-": return add(a, b, -1);
+			case "*": return multiply(a, b);
+			case "/":
+				b = trim(b);
+				if (b.length != 1 || b[0] == 0)
+					return null;
+				return scale(a, 1/b[0]);
+			case "^":
+				a = trim(a);
+				b = trim(b);
+				double p = b[0];
+				if (b.length != 1 || p < 0 || p != Math.floor(p))
+					return null;
+				// a constant to a constant power is folded in one step, however large the power
+				if (a.length == 1)
+				{
+					double c = Math.pow(a[0], p);
+					return (Double.isNaN(c) || Double.isInfinite(c)) ? null : new double[]{c};
+				}
+				if (p > MAX_DEGREE || (a.length - 1)*p > MAX_DEGREE)
+					return null;
+				double[] result = {1};
+				for (int i = 0; i < (int) p; i++)
+				{
+					result = multiply(result, a);
+				}
+				return result;
+			default:
+				return null;
+		}
+	}
+
+	public static double[] add(double[] a, double[] b, double sign)
+	{
+		double[] c = new double[Math.max(a.length, b.length)];
+		for (int i = 0; i < a.length; i++)
+			c[i] += a[i];
+		for (int i = 0; i < b.length; i++)
+			c[i] += sign*b[i];
+		return c;
+	}
+
+	public static double[] multiply(double[] a, double[] b)
+	{
+		if (a.length + b.length - 2 > MAX_DEGREE)
+			return null;
+		double[] c = new double[a.length + b.length - 1];
+		for (int i = 0; i < a.length; i++)
+		{
+			if (a[i] == 0)
+				continue;
+			for (int j = 0; j < b.length; j++)
+				c[i+j] += a[i]*b[j];
+		}
+		return c;
+	}
+
+	public static double[] scale(double[] a, double k)
+	{
+		double[] c = new double[a.length];
+		for (int i = 0; i < a.length; i++)
+			c[i] = a[i]*k;
+		return c;
+	}
+
+	// drops leading zero coefficients (but always keeps the constant term)
+	public static double[] trim(double[] c)
+	{
+		int n = c.length;
+		while (n > 1 && c[n-1] == 0)
+			n--;
+		return (n == c.length) ? c : Arrays.copyOf(c, n);
+	}
+
+	public static int degree(double[] c)
+	{
+		return c.length - 1;
+	}
+
+	public static boolean isZero(double[] c)
+	{
+		return c.length == 1 && c[0] == 0;
+	}
+
+	// the kth derivative of c
+	public static double[] derivative(double[] c, int k)
+	{
+		for (int d = 0; d < k && c.length > 1; d++)
+		{
+			double[] dc = new double[c.length - 1];
+			for (int i = 1; i < c.length; i++)
+				dc[i-1] = i*c[i];
+			c = dc;
+		}
+		return c;
+	}
+
+	// sum of |c_i x^i|, the scale of the rounding error in eval(c, x)
+	private static double bound(double[] c, double x)
+	{
+		double b = 0;
+		for (int i = c.length - 1; i >= 0; i--)
+			b = b*Math.abs(x) + Math.abs(c[i]);
+		return b;
+	}
+
+	public static double eval(double[] c, double x)
+	{
+		double p = 0;
+		for (int i = c.length - 1; i >= 0; i--)
+			p = p*x + c[i];
+		return p;
+	}
+
+	/*
+	 * Finds the real roots of c (each distinct root once, in
+	 * ascending order). Returns null if the Aberth iteration fails,
+	 * in which case the caller should fall back on RootSearch.
+	 */
+	public static Root[] solve(double[] c)
+	{
+		c = trim(c);
+		double[] original = c;
+		double[] found = new double[degree(c)];
+		int count = 0;
+
+		// x = 0 roots are factored out exactly
+		int shift = 0;
+		while (shift < c.length - 1 && c[shift] == 0)
+			shift++;
+		if (shift > 0)
+		{
+			found[count++] = 0;
+			c = Arrays.copyOfRange(c, shift, c.length);
+		}
+
+		double[] roots;
+		switch (degree(c))
+		{
+			case 0: roots = new double[0]; break;
+			case 1: roots = new double[]{-c[0]/c[1]}; break;
+			case 2: roots = quadratic(c[2], c[1], c[0]); break;
+			case 3: roots = cubic(c[2]/c[3], c[1]/c[3], c[0]/c[3]); break;
+			case 4: roots = quartic(c[3]/c[4], c[2]/c[4], c[1]/c[4], c[0]/c[4]); break;
+			default: roots = aberth(c); break;
+		}
+		if (roots == null)
+			return null;
+
+		// (aberth polishes its own roots)
+		for (double root : roots)
+			found[count++] = (degree(c) <= 4) ? polish(c, root) : root;
+
+		Arrays.sort(found, 0, count);
+		Root[] result = new Root[count];
+		int distinct = 0;
+		for (int i = 0; i < count; i++)
+		{
+			if (distinct > 0 && found[i] == result[distinct-1].getValue())
+				continue;
+			result[distinct++] = new Root(Double.NaN, found[i], eval(original, found[i]), 0, Root.Status.CONVERGED, false, multiplicity(original, found[i]));
+		}
+		return Arrays.copyOf(result, distinct);
+	}
+
+	/*
+	 * The multiplicity of the root x of c: the number of
+	 * derivatives (starting from c itself) that vanish at x.
+	 */
+	public static int multiplicity(double[] c, double x)
+	{
+		int m = 1;
+		double[] d = derivative(c, 1);
+		while (m < degree(c) && Math.abs(eval(d, x)) <= 1e-6*bound(d, x))
+		{
+			m++;
+			d = derivative(d, 1);
+		}
+		return m;
+	}
+
+	/*
+	 * A few Newton steps on the polynomial to clean up the rounding
+	 * error of the closed forms (and of Aberth's complex arithmetic).
+	 * A step is only kept if it actually lowers |p(x)|.
+	 */
+	private static double polish(double[] c, double x)
+	{
+		double px = eval(c, x);
+		for (int i = 0; i < 8 && px != 0; i++)
+		{
+			double p = 0, dp = 0;
+			for (int j = c.length - 1; j >= 0; j--)
+			{
+				dp = dp*x + p;
+				p = p*x + c[j];
+			}
+			if (dp == 0)
+				break;
+			double next = x - p/dp;
+			double pnext = eval(c, next);
+			if (!(Math.abs(pnext) < Math.abs(px)))
+				break;
+			x = next;
+			px = pnext;
+		}
+		return x;
+	}
+
+	// real roots of ax^2 + bx + c
+	private static double[] quadratic(double a, double b, double c)
+	{
+		double disc = b*b - 4*a*c;
+		double tol = 1e-12*(b*b + Math.abs(4*a*c));
+		if (disc < -tol)
+			return new double[0];
+		if (disc <= tol)
+			return new double[]{-b/(2*a)};
+
+		// avoids cancellation between -b and sqrt(disc)
+		double q = -0.5*(b + Math.copySign(Math.sqrt(disc), b));
+		return new double[]{q/a, c/q};
+	}
+
+	// real roots of x^3 + ax^2 + bx + c, through the depressed cubic t^3 + pt + q
+	private static double[] cubic(double a, double b, double c)
+	{
+		double p = b - a*a/3;
+		double q = 2*a*a*a/27 - a*b/3 + c;
+		double shift = -a/3;
+
+		double disc = q*q/4 + p*p*p/27;
+		double tol = 1e-12*(q*q/4 + Math.abs(p*p*p/27));
+		if (disc > tol)
+		{
+			// one real root (Cardano)
+			double s = Math.sqrt(disc);
+			return new double[]{Math.cbrt(-q/2 + s) + Math.cbrt(-q/2 - s) + shift};
+		}
+		else if (disc >= -tol)
+		{
+			// a repeated root
+			if (p == 0)
+				return new double[]{shift};
+			return new double[]{3*q/p + shift, -3*q/(2*p) + shift};
+		}
+		else
+		{
+			// three real roots (trigonometric form)
+			double r = 2*Math.sqrt(-p/3);
+			double arg = Math.max(-1, Math.min(1, 3*q/(2*p)*Math.sqrt(-3/p)));
+			double phi = Math.acos(arg)/3;
+			return new double[]{r*Math.cos(phi) + shift,
+								r*Math.cos(phi - 2*Math.PI/3) + shift,
+								r*Math.cos(phi - 4*Math.PI/3) + shift};
+		}
+	}
+
+	// real roots of x^4 + ax^3 + bx^2 + cx + d, through the depressed quartic y^4 + py^2 + qy + r (Ferrari)
+	private static double[] quartic(double a, double b, double c, double d)
+	{
+		double p = b - 3*a*a/8;
+		double q = c - a*b/2 + a*a*a/8;
+		double r = d - a*c/4 + a*a*b/16 - 3*a*a*a*a/256;
+		double shift = -a/4;
+
+		double[] ys;
+		if (Math.abs(q) <= 1e-12*(Math.abs(p) + Math.abs(r) + 1))
+		{
+			// biquadratic: z^2 + pz + r = 0 with z = y^2
+			double[] zs = quadratic(1, p, r);
+			double[] tmp = new double[2*zs.length];
+			int n = 0;
+			for (double z : zs)
+			{
+				if (z < -1e-12*(Math.abs(p) + 1))
+					continue;
+				double y = Math.sqrt(Math.max(z, 0));
+				tmp[n++] = y;
+				if (y != 0)
+					tmp[n++] = -y;
+			}
+			ys = Arrays.copyOf(tmp, n);
+		}
+		else
+		{
+			// the largest root m of the resolvent cubic makes the right side a perfect square
+			double m = Double.NEGATIVE_INFINITY;
+			for (double root : cubic(p, p*p/4 - r, -q*q/8))
+				m = Math.max(m, root);
+			if (!(m > 0))
+				return null;
+
+			double s = Math.sqrt(2*m);
+			double[] y1 = quadratic(1, -s, p/2 + m + q/(2*s));
+			double[] y2 = quadratic(1, s, p/2 + m - q/(2*s));
+			ys = new double[y1.length + y2.length];
+			System.arraycopy(y1, 0, ys, 0, y1.length);
+			System.arraycopy(y2, 0, ys, y1.length, y2.length);
+		}
+
+		for (int i = 0; i < ys.length; i++)
+			ys[i] += shift;
+		return ys;
+	}
+
+	/*
+	 * The Aberth (Aberth-Ehrlich) method. All n roots start on a
+	 * circle enclosing them, and each step moves root k by the
+	 * Newton correction p/p' adjusted for the pull of the other
+	 * roots. Complex numbers are kept as separate re/im arrays.
+	 */
+	private static double[] aberth(double[] c)
+	{
+		int n = degree(c);
+		double[] re = new double[n], im = new double[n];
+
+		// Cauchy's bound: every root lies within 1 + max|c_i/c_n|
+		double radius = 0;
+		for (int i = 0; i < n; i++)
+			radius = Math.max(radius, Math.abs(c[i]/c[n]));
+		radius += 1;
+		for (int k = 0; k < n; k++)
+		{
+			double angle = 2*Math.PI*k/n + 0.4;
+			re[k] = radius*Math.cos(angle);
+			im[k] = radius*Math.sin(angle);
+		}
+
+		boolean converged = false;
+		for (int iter = 0; iter < MAX_ITERATIONS && !converged; iter++)
+		{
+			converged = true;
+			for (int k = 0; k < n; k++)
+			{
+				double zr = re[k], zi = im[k];
+
+				// p(z) and p'(z) by Horner's rule
+				double pr = 0, pi = 0, dr = 0, di = 0;
+				for (int j = n; j >= 0; j--)
+				{
+					double t = dr*zr - di*zi + pr;
+					di = dr*zi + di*zr + pi;
+					dr = t;
+					t = pr*zr - pi*zi + c[j];
+					pi = pr*zi + pi*zr;
+					pr = t;
+				}
+				if (pr == 0 && pi == 0)
+					continue;
+
+				// w = p/p'
+				double den = dr*dr + di*di;
+				double wr = (pr*dr + pi*di)/den, wi = (pi*dr - pr*di)/den;
+
+				// s = sum over j != k of 1/(z_k - z_j)
+				double sr = 0, si = 0;
+				for (int j = 0; j < n; j++)
+				{
+					if (j == k)
+						continue;
+					double ur = zr - re[j], ui = zi - im[j];
+					double u = ur*ur + ui*ui;
+					sr += ur/u;
+					si -= ui/u;
+				}
+
+				// offset = w / (1 - w*s)
+				double br = 1 - (wr*sr - wi*si), bi = -(wr*si + wi*sr);
+				double b = br*br + bi*bi;
+				double or = (wr*br + wi*bi)/b, oi = (wi*br - wr*bi)/b;
+
+				re[k] = zr - or;
+				im[k] = zi - oi;
+				if (Double.isNaN(re[k]) || Double.isNaN(im[k]))
+					return null;
+				if (Math.hypot(or, oi) > 1e-14*(1 + Math.hypot(re[k], im[k])))
+					converged = false;
+			}
+		}
+
+		/*
+		 * A root of multiplicity m comes out as a loose ring of m
+		 * approximations around it. For each approximation, the ring
+		 * made of it and its m-1 nearest neighbours is tried (largest
+		 * m first): its centre is refined on the (m-1)th derivative,
+		 * where that root is simple, and kept if the result really is
+		 * a root of the polynomial. A root that is in no ring is kept
+		 * as it is if it is real.
+		 */
+		double[] roots = new double[n];
+		int count = 0;
+		boolean[] used = new boolean[n];
+		Integer[] order = new Integer[n];
+		for (int k = 0; k < n; k++)
+		{
+			if (used[k])
+				continue;
+
+			// the unused approximations, nearest to k first
+			int free = 0;
+			for (int j = 0; j < n; j++)
+			{
+				if (!used[j])
+					order[free++] = j;
+			}
+			final double kr = re[k], ki = im[k];
+			Arrays.sort(order, 0, free, (i, j) -> Double.compare(Math.hypot(re[i] - kr, im[i] - ki), Math.hypot(re[j] - kr, im[j] - ki)));
+
+			int m = free;
+			for (; m > 1; m--)
+			{
+				if (Math.hypot(re[order[m-1]] - kr, im[order[m-1]] - ki) > CLUSTER_TOL*(1 + Math.hypot(kr, ki)))
+					continue;
+
+				double cr = 0;
+				for (int j = 0; j < m; j++)
+					cr += re[order[j]];
+				double x = polish(derivative(c, m-1), cr/m);
+				if (Math.abs(eval(c, x)) <= 1e-12*bound(c, x))
+				{
+					for (int j = 0; j < m; j++)
+						used[order[j]] = true;
+					roots[count++] = x;
+					break;
+				}
+			}
+
+			if (m == 1)
+			{
+				used[k] = true;
+				if (Math.abs(im[k]) <= REAL_TOL*(1 + Math.abs(re[k])))
+					roots[count++] = polish(c, re[k]);
+			}
+		}
+		return Arrays.copyOf(roots, count);
+	}
+}
@@ -0,0 +1,207 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * A Product is a whole chain of * flattened into one n-ary product:
+ * a constant coefficient times a set of factors, each a base raised
+ * to a constant power. "2*x^1*3*y^1*x^2" is the coefficient 6 times
+ * {x: 3, y: 1}.
+ *
+ * The factors are kept in a map from base to exponent. Bases are
+ * Terms, so finding the factor a new one merges into is one hash
+ * lookup however big the base is, and flattening a product of n
+ * factors takes O(n) plus O(n log n) to sort them back out.
+ *
+ * toTerm() rebuilds the product as a binary chain in canonical
+ * order: the coefficient first (left out if it is 1), then the
+ * factors by their bases (see Term.compareTo), so that equal
+ * products always come out as the same Term.
+ */
+public class Product
+{
+	private String coefficient = "1";
+	private final Map<Term, String> powers = new HashMap<Term, String>();
+
+	public static Product of(Term term)
+	{
+		Product p = new Product();
+		p.multiply(term);
+		return p;
+	}
+
+	private void multiply(Term product)
+	{
+		if (!product.opIs(Expr.MULTIPLY))
+		{
+			factor(product);
+			return;
+		}
+
+		// the factors of the chain, left to right, off a stack (a long chain is a deep tree)
+		ArrayDeque<Term> work = new ArrayDeque<Term>();
+		work.push(product);
+		while (!work.isEmpty())
+		{
+			Term term = work.pop();
+			if (term.opIs(Expr.MULTIPLY))
+			{
+				work.push(term.getRight());
+				work.push(term.getLeft());
+			}
+			else
+			{
+				factor(term);
+			}
+		}
+	}
+
+	// multiplies in a single factor
+	private void factor(Term term)
+	{
+		if (term.typeIs(Expr.CONST))
+		{
+			scale(term.getData());
+		}
+		else if (term.opIs(Expr.POWER) && term.getRight().typeIs(Expr.CONST))
+		{
+			Term base = term.getLeft();
+			String exponent = term.getRight().getData();
+			if (base.typeIs(Expr.CONST))
+			{
+				scale(jCAS.operate(Expr.POWER, base.getData(), exponent));
+			}
+			else if (Rational.isFinite(exponent) && Rational.parse(exponent).isInteger())
+			{
+				// (2*x^3)^2 ---> 4*x^6, which only holds for whole powers
+				Product p = Product.of(base);
+				scale(jCAS.operate(Expr.POWER, p.coefficient, exponent));
+				for (Map.Entry<Term, String> factor : p.powers.entrySet())
+					raise(factor.getKey(), jCAS.operate(Expr.MULTIPLY, factor.getValue(), exponent));
+			}
+			else
+			{
+				raise(base, exponent);
+			}
+		}
+		else
+		{
+			// anything else (a sum, a quotient, x^y...) is a factor of its own
+			raise(term, "1");
+		}
+	}
+
+	// coefficient *= c
+	private void scale(String c)
+	{
+		coefficient = isOne(coefficient) ? c : jCAS.operate(Expr.MULTIPLY, coefficient, c);
+	}
+
+	// multiplies in base^exponent
+	private void raise(Term base, String exponent)
+	{
+		String power = powers.get(base);
+		powers.put(base, power == null ? exponent : jCAS.operate(Expr.ADD, power, exponent));
+	}
+
+	public String getCoefficient()
+	{
+		return coefficient;
+	}
+
+	// coefficient += c, for combining like terms
+	public void addCoefficient(String c)
+	{
+		coefficient = jCAS.operate(Expr.ADD, coefficient, c);
+	}
+
+	public boolean isConstant()
+	{
+		for (String exponent : powers.values())
+		{
+			if (!isZero(exponent))
+				return false;
+		}
+		return true;
+	}
+
+	// sum of the powers of the variables, e.g. 3 for x^2*y^1
+	public double degree()
+	{
+		double degree = 0;
+		for (Map.Entry<Term, String> factor : powers.entrySet())
+		{
+			if (factor.getKey().typeIs(Expr.VARIABLE))
+				degree += Rational.toDouble(factor.getValue());
+		}
+		return degree;
+	}
+
+	/*
+	 * The product without its coefficient, as a Term: x^2*y^1 for
+	 * both 3*y^1*x^2 and -x^1*y^1*x^1. Like terms of a sum are the
+	 * ones with the same monomial.
+	 */
+	public Term monomial()
+	{
+		Term m = null;
+		for (Term base : bases())
+		{
+			Term factor = power(base, powers.get(base));
+			m = (m == null) ? factor : Term.operator("*", m, factor);
+		}
+		return (m == null) ? Term.constant("1") : m;
+	}
+
+	public Term toTerm()
+	{
+		if (isZero(coefficient))
+			return Term.constant("0");
+
+		Term term = null;
+		List<Term> bases = bases();
+		if (!isOne(coefficient) || bases.isEmpty())
+			term = Term.constant(coefficient);
+		for (Term base : bases)
+		{
+			Term factor = power(base, powers.get(base));
+			term = (term == null) ? factor : Term.operator("*", term, factor);
+		}
+		return term;
+	}
+
+	// the bases in canonical order, leaving out any raised to 0
+	private List<Term> bases()
+	{
+		List<Term> bases = new ArrayList<Term>();
+		for (Map.Entry<Term, String> factor : powers.entrySet())
+		{
+			if (!isZero(factor.getValue()))
+				bases.add(factor.getKey());
+		}
+		Collections.sort(bases);
+		return bases;
+	}
+
+	// variables always carry their power (x^1), anything else only when it is not 1
+	private static Term power(Term base, String exponent)
+	{
+		if (isOne(exponent) && !base.typeIs(Expr.VARIABLE))
+			return base;
+		return Term.operator("^", base, Term.constant(exponent));
+	}
+
+	// exactly, so that 1/10^400 is not 0 and 1+1/10^20 is not 1 (NaN and Infinity are neither)
+	static boolean isZero(String c)
+	{
+		return Rational.isFinite(c) && Rational.parse(c).signum() == 0;
+	}
+
+	static boolean isOne(String c)
+	{
+		return Rational.isFinite(c) && Rational.parse(c).isOne();
+	}
+}
@@ -0,0 +1,282 @@
+import java.util.Arrays;
+
+/*
+ * A Program is an expression parsed exactly once into a flat array
+ * of stack machine instructions, with every number parsed up front
+ * into a constant pool. Running it is a single loop over an int
+ * array with a preallocated operand stack, so eval does not
+ * allocate, scan characters or parse numbers.
+ *
+ * "3*x^2+1" becomes
+ *   CONST 0   (pool[0] = 3)
+ *   VAR 0     (x)
+ *   SQUARE
+ *   MUL
+ *   ADDC 1    (pool[1] = 1)
+ *
+ * Constant subexpressions are folded while compiling, small whole
+ * powers become multiplications, and an operator whose right
+ * operand is a constant or a variable takes it straight from the
+ * pool or vars, which saves an instruction and a push.
+ *
+ * The stack belongs to the Program, so one Program must not be
+ * run by several threads at once; give each thread its own copy().
+ */
+public class Program
+{
+	private static final int CONST = 0, VAR = 1, ADD = 2, SUB = 3, MUL = 4, DIV = 5, POW = 6, SQUARE = 7, CUBE = 8;
+	// the same operators with a constant (C) or variable (V) right operand in place of a push
+	private static final int ADDC = 9, SUBC = 10, MULC = 11, DIVC = 12, POWC = 13;
+	private static final int ADDV = 14, SUBV = 15, MULV = 16, DIVV = 17;
+	// the functions, in the order of their ids in MathFunction (SIN + id)
+	private static final int SIN = 18, COS = 19, EXP = 20, LOG = 21, SQRT = 22;
+
+	// instruction i is code[2*i] (the opcode) and code[2*i+1] (its operand, if any)
+	private int[] code = new int[16];
+	private int size;
+	private double[] pool = new double[4];
+	private int constants;
+	private double[] stack;
+	private int depth, maxDepth;
+
+	private static final double[] NO_VARS = new double[0];
+
+	private Program()
+	{
+	}
+
+	/*
+	 * Compiles eq (see Parser for the grammar). Each variable is
+	 * bound to the slot of the vars array given by its position in
+	 * the variables String, as with CompiledExpr.
+	 */
+	public static Program compile(String eq, String variables)
+	{
+		return compile(Parser.parse(eq, variables), variables);
+	}
+
+	public static Program compile(Node node, String variables)
+	{
+		Program p = new Program();
+		p.postfix(node, variables);
+		p.code = Arrays.copyOf(p.code, p.size);
+		p.pool = Arrays.copyOf(p.pool, p.constants);
+		p.stack = new double[Math.max(1, p.maxDepth)];
+		return p;
+	}
+
+	// a Program with the same code but its own stack
+	public Program copy()
+	{
+		Program p = new Program();
+		p.code = code;
+		p.size = size;
+		p.pool = pool;
+		p.constants = constants;
+		p.stack = new double[stack.length];
+		return p;
+	}
+
+	public double eval()
+	{
+		return eval(NO_VARS);
+	}
+
+	public double eval(double[] vars)
+	{
+		final int[] code = this.code;
+		final double[] s = stack;
+		int sp = -1;
+		for (int pc = 0; pc < code.length; pc += 2)
+		{
+			switch (code[pc])
+			{
+				case CONST:  s[++sp] = pool[code[pc+1]]; break;
+				case VAR:    s[++sp] = vars[code[pc+1]]; break;
+				case ADD:    s[sp-1] += s[sp]; sp--; break;
+				case SUB:    s[sp-1] -= s[sp]; sp--; break;
+				case MUL:    s[sp-1] *= s[sp]; sp--; break;
+				case DIV:    s[sp-1] /= s[sp]; sp--; break;
+				case POW:    s[sp-1] = Math.pow(s[sp-1], s[sp]); sp--; break;
+				case SQUARE: s[sp] *= s[sp]; break;
+				case CUBE:   s[sp] *= s[sp]*s[sp]; break;
+				case ADDC:   s[sp] += pool[code[pc+1]]; break;
+				case SUBC:   s[sp] -= pool[code[pc+1]]; break;
+				case MULC:   s[sp] *= pool[code[pc+1]]; break;
+				case DIVC:   s[sp] /= pool[code[pc+1]]; break;
+				case POWC:   s[sp] = Math.pow(s[sp], pool[code[pc+1]]); break;
+				case ADDV:   s[sp] += vars[code[pc+1]]; break;
+				case SUBV:   s[sp] -= vars[code[pc+1]]; break;
+				case MULV:   s[sp] *= vars[code[pc+1]]; break;
+				case SIN:    s[sp] = Math.sin(s[sp]); break;
+				case COS:    s[sp] = Math.cos(s[sp]); break;
+				case EXP:    s[sp] = Math.exp(s[sp]); break;
+				case LOG:    s[sp] = Math.log(s[sp]); break;
+				case SQRT:   s[sp] = Math.sqrt(s[sp]); break;
+				case DIVV:   s[sp] /= vars[code[pc+1]]; break;
+				default:     throw new RuntimeException("Unknown opcode: " + code[pc]);
+			}
+		}
+		return s[0];
+	}
+
+	// emitting
+
+	/*
+	 * Emits the instructions for node in postfix order: an operator's
+	 * left operand (its second child), then its right operand, then
+	 * the operator itself. The tree is walked with an explicit stack,
+	 * each frame counting down the children it has left to emit.
+	 */
+	private void postfix(Node node, String variables)
+	{
+		Node[] nodes = new Node[16];
+		int[] left = new int[16];
+		int top = 0;
+		nodes[top] = node;
+		left[top++] = node.getChildren().size();
+		while (top > 0)
+		{
+			Node n = nodes[top-1];
+			if (left[top-1] > 0)
+			{
+				Node child = n.getChild(--left[top-1]);
+				if (top == nodes.length)
+				{
+					nodes = Arrays.copyOf(nodes, 2*top);
+					left = Arrays.copyOf(left, 2*top);
+				}
+				nodes[top] = child;
+				left[top++] = child.getChildren().size();
+				continue;
+			}
+			top--;
+
+			String data = n.getData().getData();
+			switch (n.getData().getKind())
+			{
+				case Expr.CONST:    pushConst(Rational.toDouble(data)); break;
+				case Expr.VARIABLE: pushVar(variables.indexOf(data)); break;
+				case Expr.FUNCTION: function(MathFunction.id(data)); break;
+				default:            binary(data.charAt(0)); break;
+			}
+		}
+	}
+
+	private void emit(int op, int arg)
+	{
+		if (size + 2 > code.length)
+			code = Arrays.copyOf(code, 2*code.length);
+		code[size++] = op;
+		code[size++] = arg;
+	}
+
+	private boolean lastIsConst(int back)
+	{
+		return size >= 2*back && code[size - 2*back] == CONST;
+	}
+
+	private double constAt(int back)
+	{
+		return pool[code[size - 2*back + 1]];
+	}
+
+	private void pushConst(double c)
+	{
+		if (constants == pool.length)
+			pool = Arrays.copyOf(pool, 2*constants);
+		pool[constants] = c;
+		emit(CONST, constants++);
+		maxDepth = Math.max(maxDepth, ++depth);
+	}
+
+	private void pushVar(int slot)
+	{
+		emit(VAR, slot);
+		maxDepth = Math.max(maxDepth, ++depth);
+	}
+
+	// the function with the given id (see MathFunction) of the top of the stack
+	private void function(int id)
+	{
+		if (lastIsConst(1))
+		{
+			pool[code[size-1]] = MathFunction.apply(id, constAt(1));
+			return;
+		}
+		emit(SIN + id, 0);
+	}
+
+	// op is one of + - * / ^
+	private void binary(char op)
+	{
+		if (lastIsConst(1) && lastIsConst(2))
+		{
+			// both operands are constants: fold them into one
+			double a = constAt(2), b = constAt(1);
+			size -= 4;
+			constants -= 2;
+			depth -= 2;
+			pushConst(apply(op, a, b));
+			return;
+		}
+		if (op == '^' && lastIsConst(1) && (constAt(1) == 2 || constAt(1) == 3 || constAt(1) == 4))
+		{
+			int power = (int) constAt(1);
+			size -= 2;
+			constants--;
+			depth--;
+			if (power == 4)
+				emit(SQUARE, 0);
+			emit(power == 3 ? CUBE : SQUARE, 0);
+			return;
+		}
+		if (size >= 2 && (code[size-2] == CONST || code[size-2] == VAR))
+		{
+			// fuse the push of the right operand into the operator
+			boolean c = code[size-2] == CONST;
+			int arg = code[size-1];
+			size -= 2;
+			depth--;
+			switch (op)
+			{
+				case '+': emit(c ? ADDC : ADDV, arg); break;
+				case '-': emit(c ? SUBC : SUBV, arg); break;
+				case '*': emit(c ? MULC : MULV, arg); break;
+				case '/': emit(c ? DIVC : DIVV, arg); break;
+				default:
+					if (c)
+						emit(POWC, arg);
+					else
+					{
+						emit(VAR, arg);
+						emit(POW, 0);
+					}
+					break;
+			}
+			return;
+		}
+
+		switch (op)
+		{
+			case '+': emit(ADD, 0); break;
+			case '-': emit(SUB, 0); break;
+			case '*': emit(MUL, 0); break;
+			case '/': emit(DIV, 0); break;
+			default:  emit(POW, 0); break;
+		}
+		depth--;
+	}
+
+	private static double apply(char op, double a, double b)
+	{
+		switch (op)
+		{
+			case '+': return a + b;
+			case '-': return a - b;
+			case '*': return a * b;
+			case '/': return a / b;
+			default:  return Math.pow(a, b);
+		}
+	}
+}
@@ -0,0 +1,322 @@
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+/*
+ * A Rational is an exact fraction num/den, in lowest terms with a
+ * positive denominator. This is what constants are folded in, so
+ * that 1/3*3 really is 1 and 0.1+0.2 really is 0.3.
+ *
+ * Almost every constant in practice fits in a long, so that is
+ * how they are kept: adding or multiplying two of them is a few
+ * long operations and a gcd. Only when a result would overflow a
+ * long (checked with Math.addExact / multiplyExact) does the
+ * Rational switch over to BigInteger, and it switches back as soon
+ * as a result fits again.
+ *
+ * In the AST a constant is still a String: parse() reads one (an
+ * integer, a decimal such as "2.5", or "p/q") and toString() writes
+ * one back. A constant which is not a whole number is only turned
+ * into a double when it is displayed (see display) or evaluated.
+ */
+public final class Rational
+{
+	public static final Rational ZERO = new Rational(0, 1), ONE = new Rational(1, 1);
+
+	// num/den when big is false, bigNum/bigDen when it is true
+	private final long num, den;
+	private final BigInteger bigNum, bigDen;
+	private final boolean big;
+
+	private Rational(long num, long den)
+	{
+		this.num=num;
+		this.den=den;
+		bigNum=null;
+		bigDen=null;
+		big=false;
+	}
+
+	private Rational(BigInteger num, BigInteger den)
+	{
+		this.num=0;
+		this.den=1;
+		bigNum=num;
+		bigDen=den;
+		big=true;
+	}
+
+	public static Rational valueOf(long n)
+	{
+		return new Rational(n, 1);
+	}
+
+	// num/den in lowest terms
+	public static Rational of(long num, long den)
+	{
+		if (den == 0)
+			throw new ArithmeticException("Division by zero");
+		// -Long.MIN_VALUE does not fit in a long
+		if (num == Long.MIN_VALUE || den == Long.MIN_VALUE)
+			return of(BigInteger.valueOf(num), BigInteger.valueOf(den));
+		if (den < 0)
+		{
+			num = -num;
+			den = -den;
+		}
+		long g = gcd(Math.abs(num), den);
+		return new Rational(num/g, den/g);
+	}
+
+	public static Rational of(BigInteger num, BigInteger den)
+	{
+		if (den.signum() == 0)
+			throw new ArithmeticException("Division by zero");
+		if (den.signum() < 0)
+		{
+			num = num.negate();
+			den = den.negate();
+		}
+		BigInteger g = num.gcd(den);
+		if (!g.equals(BigInteger.ONE))
+		{
+			num = num.divide(g);
+			den = den.divide(g);
+		}
+		if (num.bitLength() < 63 && den.bitLength() < 63)
+			return new Rational(num.longValue(), den.longValue());
+		return new Rational(num, den);
+	}
+
+	/*
+	 * Reads a constant: "3", "-2.5", "1.0E-4" or "1/3". Decimals
+	 * are read exactly (2.5 is 5/2), not through a double.
+	 */
+	public static Rational parse(String s)
+	{
+		int slash = s.indexOf('/');
+		if (slash >= 0)
+			return parse(s.substring(0, slash)).divide(parse(s.substring(slash + 1)));
+
+		// the usual case, a small integer
+		if (isSmallInteger(s))
+			return valueOf(Long.parseLong(s));
+
+		BigDecimal d = new BigDecimal(s);
+		if (d.scale() <= 0)
+			return of(d.toBigIntegerExact(), BigInteger.ONE);
+		return of(d.unscaledValue(), BigInteger.TEN.pow(d.scale()));
+	}
+
+	/*
+	 * The exact value of d, which must be finite. Results which
+	 * cannot be exact (x^0.5, say) come back as doubles and are
+	 * taken in at face value: the shortest decimal that reads back
+	 * as d, so 1.4142135623730951 rather than its binary expansion.
+	 */
+	public static Rational valueOf(double d)
+	{
+		if (d == Math.rint(d) && Math.abs(d) < 1e18)
+			return valueOf((long) d);
+		return parse(Double.toString(d));
+	}
+
+	// whether the constant s is a number at all, rather than NaN or (-)Infinity (which parse cannot read)
+	public static boolean isFinite(String s)
+	{
+		return !s.equals("NaN") && !s.endsWith("Infinity");
+	}
+
+	// the value of the constant s, for the evaluators
+	public static double toDouble(String s)
+	{
+		if (isSmallInteger(s))
+			return Long.parseLong(s);
+		return (s.indexOf('/') < 0) ? Double.parseDouble(s) : parse(s).doubleValue();
+	}
+
+	// an integer which fits in a long, which parses without allocating anything
+	private static boolean isSmallInteger(String s)
+	{
+		if (s.length() == 0 || s.length() >= 19)
+			return false;
+		for (int i = 0; i < s.length(); i++)
+		{
+			if (!Character.isDigit(s.charAt(i)) && !(i == 0 && s.charAt(i) == '-' && s.length() > 1))
+				return false;
+		}
+		return true;
+	}
+
+	/*
+	 * How the constant s is shown to the user: as it is if it is
+	 * a whole number or a decimal, and as a decimal if it is a
+	 * fraction, since "1/3" printed inside x^1/3 would read wrong.
+	 */
+	public static String display(String s)
+	{
+		if (s.indexOf('/') < 0)
+			return s;
+		Rational r = parse(s);
+		double d = r.doubleValue();
+		// beyond what a double can hold, (1/3)^2000 say, written out to as many digits as a double has
+		if (d == 0 || Double.isInfinite(d))
+			return new BigDecimal(r.bigNum()).divide(new BigDecimal(r.bigDen()), MathContext.DECIMAL64).stripTrailingZeros().toString();
+		return Double.toString(d);
+	}
+
+	public Rational add(Rational r)
+	{
+		if (!big && !r.big)
+		{
+			try
+			{
+				long n = (den == r.den) ? Math.addExact(num, r.num) : Math.addExact(Math.multiplyExact(num, r.den), Math.multiplyExact(r.num, den));
+				long d = (den == r.den) ? den : Math.multiplyExact(den, r.den);
+				if (n != Long.MIN_VALUE)
+					return of(n, d);
+			}
+			catch (ArithmeticException overflow)
+			{
+				// fall through to BigInteger
+			}
+		}
+		return of(bigNum().multiply(r.bigDen()).add(r.bigNum().multiply(bigDen())), bigDen().multiply(r.bigDen()));
+	}
+
+	public Rational subtract(Rational r)
+	{
+		return add(r.negate());
+	}
+
+	public Rational multiply(Rational r)
+	{
+		if (!big && !r.big)
+		{
+			try
+			{
+				// cross-cancel first, which keeps the products small
+				long g1 = gcd(Math.abs(num), r.den), g2 = gcd(Math.abs(r.num), den);
+				long n = Math.multiplyExact(num/g1, r.num/g2), d = Math.multiplyExact(den/g2, r.den/g1);
+				if (n != Long.MIN_VALUE)
+					return new Rational(n, d);
+			}
+			catch (ArithmeticException overflow)
+			{
+				// fall through to BigInteger
+			}
+		}
+		return of(bigNum().multiply(r.bigNum()), bigDen().multiply(r.bigDen()));
+	}
+
+	public Rational divide(Rational r)
+	{
+		return multiply(r.reciprocal());
+	}
+
+	public Rational negate()
+	{
+		if (!big && num != Long.MIN_VALUE)
+			return new Rational(-num, den);
+		return of(bigNum().negate(), bigDen());
+	}
+
+	public Rational reciprocal()
+	{
+		if (!big)
+			return of(den, num);
+		return of(bigDen(), bigNum());
+	}
+
+	// this^n, by repeated squaring
+	public Rational pow(int n)
+	{
+		if (n < 0)
+			return reciprocal().pow(-n);
+		Rational result = ONE, square = this;
+		while (n > 0)
+		{
+			if ((n & 1) != 0)
+				result = result.multiply(square);
+			n >>= 1;
+			if (n > 0)
+				square = square.multiply(square);
+		}
+		return result;
+	}
+
+	public int signum()
+	{
+		return big ? bigNum.signum() : Long.signum(num);
+	}
+
+	public boolean isInteger()
+	{
+		return big ? bigDen.equals(BigInteger.ONE) : den == 1;
+	}
+
+	public boolean isOne()
+	{
+		return !big && num == 1 && den == 1;
+	}
+
+	// the bits in the larger of num and den, which is what the cost of arithmetic on it goes by
+	public int bitLength()
+	{
+		if (big)
+			return Math.max(bigNum.bitLength(), bigDen.bitLength());
+		return 64 - Long.numberOfLeadingZeros(Math.max(Math.abs(num), den));
+	}
+
+	public double doubleValue()
+	{
+		if (!big)
+			return (den == 1) ? num : (double) num/den;
+		return new BigDecimal(bigNum).divide(new BigDecimal(bigDen), MathContext.DECIMAL64).doubleValue();
+	}
+
+	private BigInteger bigNum()
+	{
+		return big ? bigNum : BigInteger.valueOf(num);
+	}
+
+	private BigInteger bigDen()
+	{
+		return big ? bigDen : BigInteger.valueOf(den);
+	}
+
+	private static long gcd(long a, long b)
+	{
+		while (b != 0)
+		{
+			long t = a % b;
+			a = b;
+			b = t;
+		}
+		return (a == 0) ? 1 : a;
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if (!(o instanceof Rational))
+			return false;
+		Rational r = (Rational) o;
+		return big == r.big && (big ? bigNum.equals(r.bigNum) && bigDen.equals(r.bigDen) : num == r.num && den == r.den);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return big ? bigNum.hashCode()*31 + bigDen.hashCode() : Long.hashCode(num)*31 + Long.hashCode(den);
+	}
+
+	// "n" for a whole number, "p/q" otherwise
+	@Override
+	public String toString()
+	{
+		if (big)
+			return bigDen.equals(BigInteger.ONE) ? bigNum.toString() : bigNum + "/" + bigDen;
+		return (den == 1) ? Long.toString(num) : num + "/" + den;
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * A Root is the outcome of one run of Newton's Method. Besides
+ * the value itself it records where the run started, how many
+ * iterations it took, the residual f(x) it ended on and why it
+ * stopped. Only CONVERGED, VERIFIED and KNOWN roots are real solutions;
+ * the others are kept so that the solver can be tuned.
+ */
+public class Root
+{
+	public enum Status
+	{
+		CONVERGED,   // residual or step size fell below tolerance
+		VERIFIED,    // proven to be the only root in an interval (IntervalSolver)
+		KNOWN,       // stopped on a root another run already found
+		STALLED,     // steps became tiny but f(x) did not (e.g. a pole)
+		DIVERGED,    // x ran off towards infinity
+		OSCILLATING, // f(x) stopped improving
+		NAN,         // f(x) could not be evaluated
+		MAX_ITER     // the iteration budget ran out
+	}
+
+	private final double guess;
+	private final double value;
+	private final double residual;
+	private final int iterations;
+	private final Status status;
+	private final boolean bracketed;
+	private final int multiplicity;
+
+	public Root(double guess, double value, double residual, int iterations, Status status, boolean bracketed)
+	{
+		this(guess, value, residual, iterations, status, bracketed, 1);
+	}
+
+	public Root(double guess, double value, double residual, int iterations, Status status, boolean bracketed, int multiplicity)
+	{
+		this.guess=guess;
+		this.value=value;
+		this.residual=residual;
+		this.iterations=iterations;
+		this.status=status;
+		this.bracketed=bracketed;
+		this.multiplicity=multiplicity;
+	}
+
+	public double getGuess()
+	{
+		return guess;
+	}
+
+	public double getValue()
+	{
+		return value;
+	}
+
+	public double getResidual()
+	{
+		return residual;
+	}
+
+	public int getIterations()
+	{
+		return iterations;
+	}
+
+	public Status getStatus()
+	{
+		return status;
+	}
+
+	// true if the root was bracketed (by a sign change, or by an interval proven to hold it)
+	public boolean isBracketed()
+	{
+		return bracketed;
+	}
+
+	// estimated multiplicity of the root (1 for a simple root)
+	public int getMultiplicity()
+	{
+		return multiplicity;
+	}
+
+	public boolean isConverged()
+	{
+		return status == Status.CONVERGED || status == Status.VERIFIED || status == Status.KNOWN;
+	}
+
+	@Override
+	public String toString()
+	{
+		return guess + " -> " + value + " (" + status + ", " + iterations + " iterations, f = " + residual
+				+ (bracketed ? ", bracketed" : "") + (multiplicity > 1 ? ", multiplicity " + multiplicity : "") + ")";
+	}
+}
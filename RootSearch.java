@@ -0,0 +1,126 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * RootSearch runs Newton's Method from many initial guesses
+ * at once. Every guess is independent of the others, so the
+ * range of guesses is split in half repeatedly (fork/join)
+ * until each piece is small enough to run on one thread.
+ *
+ * Whenever a run converges, its root is published. Other runs
+ * check the published roots as they iterate, and once they get
+ * very close to one of them they stop and return it rather than
+ * spending the rest of their iterations refining the same root.
+ *
+ * Each result is written to the slot of its own guess, so the
+ * caller sees the results in guess order no matter how the work
+ * was scheduled or how many threads took part. A run only stops
+ * on a root published from a smaller guess, so the first run (in
+ * guess order) to reach a root always refines it itself, and its
+ * value is the same however the threads are scheduled.
+ */
+public class RootSearch extends RecursiveAction
+{
+	private static final long serialVersionUID = 1L;
+
+	// guesses per task before splitting stops
+	private static final int THRESHOLD = 8;
+
+	// how close counts as the same root
+	public static final double CUTOFF = 1e-9;
+
+	private final CompiledExpr f, df;
+	private final String variables;
+	private final double from, step;
+	private final int lo, hi;
+	private final Root[] results;
+	private final KnownRoots known;
+
+	private RootSearch(CompiledExpr f, CompiledExpr df, String variables, double from, double step, int lo, int hi, Root[] results, KnownRoots known)
+	{
+		this.f=f;
+		this.df=df;
+		this.variables=variables;
+		this.from=from;
+		this.step=step;
+		this.lo=lo;
+		this.hi=hi;
+		this.results=results;
+		this.known=known;
+	}
+
+	/*
+	 * Returns the result of Newton's Method for every guess
+	 * from, from+step, ..., to (in that order). df is the exact
+	 * derivative of f, or null to use finite differences. f is
+	 * solved for the first of variables (see jCAS.newton).
+	 */
+	public static Root[] search(CompiledExpr f, CompiledExpr df, String variables, double from, double to, double step)
+	{
+		int n = (int) Math.floor((to - from) / step) + 1;
+		Root[] results = new Root[n];
+		ForkJoinPool.commonPool().invoke(new RootSearch(f, df, variables, from, step, 0, n, results, new KnownRoots()));
+		return results;
+	}
+
+	@Override
+	protected void compute()
+	{
+		if (hi - lo <= THRESHOLD)
+		{
+			for (int i = lo; i < hi; i++)
+			{
+				Root root = jCAS.newton(f, df, variables, from + i*step, known);
+				results[i] = root;
+
+				if (root.getStatus() == Root.Status.CONVERGED)
+					known.add(root.getValue(), root.getGuess());
+			}
+		}
+		else
+		{
+			int mid = (lo + hi) >>> 1;
+			invokeAll(new RootSearch(f, df, variables, from, step, lo, mid, results, known),
+					  new RootSearch(f, df, variables, from, step, mid, hi, results, known));
+		}
+	}
+
+	/*
+	 * The roots found so far, shared by every task of one search.
+	 * Readers only ever see a complete array, so they can scan it
+	 * on each Newton iteration without taking a lock.
+	 */
+	public static class KnownRoots
+	{
+		// each root followed by the guess it was found from
+		private volatile double[] roots = new double[0];
+
+		public synchronized void add(double root, double guess)
+		{
+			double[] old = roots;
+			for (int i = 0; i < old.length; i += 2)
+			{
+				// of two runs reaching the same root, the one from the smaller guess is kept
+				if (Math.abs(old[i] - root) < CUTOFF && old[i+1] < guess)
+					return;
+			}
+			double[] grown = new double[old.length + 2];
+			System.arraycopy(old, 0, grown, 0, old.length);
+			grown[old.length] = root;
+			grown[old.length + 1] = guess;
+			roots = grown;
+		}
+
+		// returns the root within CUTOFF of x found from a guess below guess, or NaN if there is none
+		public double near(double x, double guess)
+		{
+			double[] known = roots;
+			for (int i = 0; i < known.length; i += 2)
+			{
+				if (Math.abs(known[i] - x) < CUTOFF && known[i+1] < guess)
+					return known[i];
+			}
+			return Double.NaN;
+		}
+	}
+}
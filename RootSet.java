@@ -0,0 +1,125 @@
+import java.util.Arrays;
+
+/*
+ * RootSet is the set of distinct roots found by a solve. The
+ * roots are kept sorted in plain double arrays, so adding one is
+ * a binary search rather than a scan over boxed Doubles, and two
+ * roots count as the same when they are within a (relative)
+ * tolerance of each other instead of only when exactly equal.
+ *
+ * When a root is added twice, the copy added first is kept along
+ * with the larger of the two multiplicities. Roots are added in a
+ * fixed order (for Newton's Method, guess order), so which copy is
+ * kept, and the digits shown, never depend on thread timing.
+ *
+ * A RootSet can be given a limit on how many roots it holds. Past
+ * it, new roots are not kept and the set is marked as truncated, so
+ * that an equation which is (all but) zero everywhere gives a short
+ * list which says it is incomplete rather than a root per guess.
+ */
+public class RootSet
+{
+	private final double tol;
+	private final int limit;
+	private boolean truncated;
+	private double[] values = new double[8];
+	private double[] residuals = new double[8];
+	private int[] multiplicities = new int[8];
+	private int size;
+
+	public RootSet(double tol)
+	{
+		this(tol, Integer.MAX_VALUE);
+	}
+
+	public RootSet(double tol, int limit)
+	{
+		this.tol=tol;
+		this.limit=limit;
+	}
+
+	public void add(double value, double residual, int multiplicity)
+	{
+		if (Double.isNaN(value))
+			return;
+
+		// first position whose value is >= value
+		int lo = 0, hi = size;
+		while (lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if (values[mid] < value)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+
+		int same = -1;
+		if (lo < size && isSame(values[lo], value))
+			same = lo;
+		if (lo > 0 && isSame(values[lo-1], value) && (same < 0 || value - values[lo-1] < values[lo] - value))
+			same = lo - 1;
+
+		if (same >= 0)
+		{
+			multiplicities[same] = Math.max(multiplicities[same], multiplicity);
+			return;
+		}
+
+		if (size == limit)
+		{
+			truncated = true;
+			return;
+		}
+
+		if (size == values.length)
+		{
+			values = Arrays.copyOf(values, 2*size);
+			residuals = Arrays.copyOf(residuals, 2*size);
+			multiplicities = Arrays.copyOf(multiplicities, 2*size);
+		}
+		System.arraycopy(values, lo, values, lo + 1, size - lo);
+		System.arraycopy(residuals, lo, residuals, lo + 1, size - lo);
+		System.arraycopy(multiplicities, lo, multiplicities, lo + 1, size - lo);
+		values[lo] = value;
+		residuals[lo] = residual;
+		multiplicities[lo] = multiplicity;
+		size++;
+	}
+
+	private boolean isSame(double a, double b)
+	{
+		return Math.abs(a - b) <= tol*Math.max(1, Math.max(Math.abs(a), Math.abs(b)));
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	// whether a root was left out because the set was full
+	public boolean isTruncated()
+	{
+		return truncated;
+	}
+
+	public double get(int i)
+	{
+		return values[i];
+	}
+
+	public double getResidual(int i)
+	{
+		return residuals[i];
+	}
+
+	public int getMultiplicity(int i)
+	{
+		return multiplicities[i];
+	}
+
+	public double[] toArray()
+	{
+		return Arrays.copyOf(values, size);
+	}
+}
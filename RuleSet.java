@@ -0,0 +1,87 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * A RuleSet is a list of rewrite rules indexed by the head of the
+ * term they apply to: the operator for an operator term, or "const",
+ * "variable" or "function" for anything else. Rewriting a term only looks at the rules
+ * registered for its head, so adding a rule for, say, "^" does not
+ * cost anything at a "+" term. Heads are numbered (an operator's
+ * opcode, then one for each other kind of term), so finding the
+ * rules for a term is an array lookup.
+ *
+ * The rules for a head are tried in the order they were added, and
+ * the first one which changes the term wins (just like a chain of
+ * if / else if).
+ */
+public class RuleSet
+{
+	// how many heads there are: the operators, then const, variable and function
+	private static final int HEADS = Expr.OPERATORS.length() + 3;
+
+	@SuppressWarnings("unchecked")
+	private final List<Rule>[] rules = (List<Rule>[]) new List<?>[HEADS];
+
+	// head is an operator, "const", "variable" or "function"
+	public RuleSet add(String head, Rule rule)
+	{
+		int h = Expr.opcode(head);
+		if (h < 0)
+			h = kind(head.equals("const") ? Expr.CONST : head.equals("variable") ? Expr.VARIABLE : Expr.FUNCTION);
+		if (rules[h] == null)
+			rules[h] = new ArrayList<Rule>();
+		rules[h].add(rule);
+		return this;
+	}
+
+	// the same rule for several heads
+	public RuleSet add(String[] heads, Rule rule)
+	{
+		for (String head : heads)
+			add(head, rule);
+		return this;
+	}
+
+	public static int head(Term term)
+	{
+		return term.typeIs(Expr.OPERATOR) ? term.getOp() : kind(term.getType());
+	}
+
+	// the head for the terms of a kind other than operators
+	private static int kind(int kind)
+	{
+		switch (kind)
+		{
+			case Expr.CONST:    return Expr.OPERATORS.length();
+			case Expr.VARIABLE: return Expr.OPERATORS.length() + 1;
+			default:            return Expr.OPERATORS.length() + 2;
+		}
+	}
+
+	// the first matching rule's rewrite of term, or term itself if none matched
+	public Term apply(Term term, String parent, Term sibling)
+	{
+		List<Rule> candidates = rules[head(term)];
+		if (candidates == null)
+			return term;
+		for (Rule rule : candidates)
+		{
+			Term result = rule.apply(term, parent, sibling);
+			if (result != term)
+				return result;
+		}
+		return term;
+	}
+}
+
+/*
+ * A Rule rewrites term if its pattern matches, returning the new
+ * term, or term itself if it does not match. Terms are immutable,
+ * so a rule never changes anything in place; what the term is
+ * under is passed in instead: the parent's operator (null at the
+ * root) and the other operand of the parent.
+ */
+interface Rule
+{
+	Term apply(Term term, String parent, Term sibling);
+}
@@ -0,0 +1,98 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * A Simplification keeps track of simplifying one expression: how
+ * many passes and rewrites it has taken so far, and which subterms
+ * a pass has already gone over without changing anything.
+ *
+ * Since Terms are immutable, a subterm which came through a pass
+ * unchanged will come through every later pass unchanged too, as
+ * long as it is in the same place. "The same place" is as much as
+ * the rules can see of it: the operator it is under, and whether
+ * the other operand there is a constant. So a subterm is clean in
+ * a context, and is only skipped when it turns up in that context
+ * again. Hash-consing helps here as well: once x^1 is clean under
+ * a *, every x^1 under a * is.
+ */
+public class Simplification
+{
+	private int passes, rewrites;
+
+	// for each clean term, a bit for each context it is clean in
+	private final Map<Term, Integer> clean = new HashMap<Term, Integer>();
+
+	// simplifyAST's stack, kept from one pass to the next
+	private Frame[] frames = new Frame[16];
+
+	/*
+	 * What simplifyAST remembers about a term on its way down the
+	 * tree: the term as rewritten so far, where it is, the rewrite
+	 * count on the way in, and how many of its operands are done
+	 * (the right one first, whose result is kept in right).
+	 */
+	static final class Frame
+	{
+		Term term, sibling, right;
+		String parent;
+		int before, operandsDone;
+	}
+
+	// the frame at depth i of simplifyAST's stack
+	Frame frame(int i)
+	{
+		if (i == frames.length)
+			frames = Arrays.copyOf(frames, 2*i);
+		if (frames[i] == null)
+			frames[i] = new Frame();
+		return frames[i];
+	}
+
+	// the rewrite of term by the first matching rule in rules, counting it if there was one
+	public Term apply(RuleSet rules, Term term, String parent, Term sibling)
+	{
+		Term result = rules.apply(term, parent, sibling);
+		if (result != term)
+			rewrites++;
+		return result;
+	}
+
+	public boolean isClean(Term term, String parent, Term sibling)
+	{
+		Integer contexts = clean.get(term);
+		return contexts != null && (contexts & context(parent, sibling)) != 0;
+	}
+
+	public void setClean(Term term, String parent, Term sibling)
+	{
+		clean.merge(term, context(parent, sibling), (a, b) -> a | b);
+	}
+
+	// a bit for the root, one for a function's argument (no rule cares which function), then two for each
+	// operator: the sibling is a constant or it is not
+	private static int context(String parent, Term sibling)
+	{
+		if (parent == null)
+			return 1;
+		int op = Expr.opcode(parent);
+		if (op < 0)
+			return 2;
+		return 1 << (2 + 2*op + (sibling.typeIs(Expr.CONST) ? 0 : 1));
+	}
+
+	public void countPass()
+	{
+		passes++;
+	}
+
+	public int getPasses()
+	{
+		return passes;
+	}
+
+	public int getRewrites()
+	{
+		return rewrites;
+	}
+}
@@ -0,0 +1,90 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * SimplifyCache remembers the simplified form of expressions that
+ * have been simplified before, so that the same expression submitted
+ * again is just looked up. Keys and values are Terms, which hash and
+ * compare in constant time however big the expression is.
+ *
+ * The cache holds at most capacity entries. Once it is full, the
+ * least recently used entry is evicted to make room for a new one.
+ * It is safe to use from several threads at once.
+ */
+public class SimplifyCache
+{
+	private final int capacity;
+	private final LinkedHashMap<Term, Term> map;
+	private long hits, misses, evictions;
+
+	public SimplifyCache(int capacity)
+	{
+		this.capacity=capacity;
+		// access order, so that iteration (and eviction) starts at the least recently used
+		map = new LinkedHashMap<Term, Term>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Term, Term> eldest)
+			{
+				if (size() > SimplifyCache.this.capacity)
+				{
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	// the simplified form of key, or null if it is not cached
+	public synchronized Term get(Term key)
+	{
+		Term value = map.get(key);
+		if (value != null)
+			hits++;
+		else
+			misses++;
+		return value;
+	}
+
+	public synchronized void put(Term key, Term value)
+	{
+		map.put(key, value);
+	}
+
+	public synchronized void clear()
+	{
+		map.clear();
+	}
+
+	public synchronized int size()
+	{
+		return map.size();
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	public synchronized long getHits()
+	{
+		return hits;
+	}
+
+	public synchronized long getMisses()
+	{
+		return misses;
+	}
+
+	public synchronized long getEvictions()
+	{
+		return evictions;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return map.size() + "/" + capacity + " entries, " + hits + " hits, " + misses + " misses, " + evictions + " evictions";
+	}
+}
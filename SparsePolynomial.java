@@ -0,0 +1,365 @@
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/*
+ * A SparsePolynomial is a polynomial in one variable kept as just
+ * its nonzero terms: parallel arrays of exponents (ascending) and
+ * coefficients, so x^100 + 1 is two terms rather than 101 slots.
+ *
+ * It is what the simplifier expands polynomials in. Expanding
+ * (x+1)*(x+2)*...*(x+n) by distributing * over + one binary Node at
+ * a time builds enormous intermediate trees; here every product is
+ * a single multiply on arrays, and the result is turned back into
+ * a Term only once, at the end.
+ *
+ * The coefficients are Rationals, so an expansion is exact however
+ * large its coefficients get: (x+1)^100 has every binomial coefficient
+ * right, and (x/3+1)^2 has 1/9 for its first one. A constant which is
+ * not a number (NaN, Infinity) makes the term not a polynomial.
+ *
+ * Multiplying is schoolbook over the nonzero terms when either side
+ * is sparse, and Karatsuba on dense coefficient arrays when both
+ * are dense and large enough for it to pay off.
+ */
+public final class SparsePolynomial
+{
+	// largest degree worth expanding
+	public static final int MAX_DEGREE = 1000;
+
+	// below this many coefficients, Karatsuba splits no further
+	private static final int KARATSUBA_THRESHOLD = 32;
+
+	// fraction of nonzero coefficients from which a polynomial counts as dense
+	private static final double DENSE = 0.5;
+
+	private final String variable;
+	private final int[] exponents;
+	private final Rational[] coefficients;
+
+	private SparsePolynomial(String variable, int[] exponents, Rational[] coefficients)
+	{
+		this.variable=variable;
+		this.exponents=exponents;
+		this.coefficients=coefficients;
+	}
+
+	public static SparsePolynomial constant(Rational c)
+	{
+		return (c.signum() == 0) ? new SparsePolynomial(null, new int[0], new Rational[0])
+				: new SparsePolynomial(null, new int[]{0}, new Rational[]{c});
+	}
+
+	/*
+	 * The term as a polynomial, or null if it is not one: more than
+	 * one variable, a division by anything but a constant, a power
+	 * which is not a whole constant, a function, or a degree over
+	 * MAX_DEGREE.
+	 */
+	public static SparsePolynomial of(Term term)
+	{
+		// post-order, as in Term.of: an operator comes off the stack
+		// the second time once both its operands are on polynomials
+		ArrayDeque<Term> work = new ArrayDeque<Term>();
+		ArrayDeque<Boolean> visited = new ArrayDeque<Boolean>();
+		ArrayDeque<SparsePolynomial> polynomials = new ArrayDeque<SparsePolynomial>();
+		work.push(term);
+		visited.push(false);
+		while (!work.isEmpty())
+		{
+			Term t = work.pop();
+			boolean operandsDone = visited.pop();
+			if (t.typeIs(Expr.CONST))
+			{
+				if (!Rational.isFinite(t.getData()))
+					return null;
+				polynomials.push(constant(Rational.parse(t.getData())));
+			}
+			else if (t.typeIs(Expr.VARIABLE))
+			{
+				polynomials.push(new SparsePolynomial(t.getData(), new int[]{1}, new Rational[]{Rational.ONE}));
+			}
+			else if (t.typeIs(Expr.FUNCTION))
+			{
+				return null;
+			}
+			else if (operandsDone)
+			{
+				SparsePolynomial a = polynomials.pop(), b = polynomials.pop();
+				SparsePolynomial p = combine(t.getData(), a, b);
+				// once any part is not a polynomial, neither is the whole
+				if (p == null)
+					return null;
+				polynomials.push(p);
+			}
+			else
+			{
+				work.push(t);
+				visited.push(true);
+				work.push(t.getLeft());
+				visited.push(false);
+				work.push(t.getRight());
+				visited.push(false);
+			}
+		}
+		return polynomials.pop();
+	}
+
+	// a op b, or null if that is not a polynomial
+	private static SparsePolynomial combine(String op, SparsePolynomial a, SparsePolynomial b)
+	{
+		if (a.variable != null && b.variable != null && !a.variable.equals(b.variable))
+			return null;
+
+		switch (op)
+		{
+			case "+": return a.add(b, 1);
+			case "-": return a.add(b, -1);
+			case "*": return a.multiply(b);
+			case "/": return b.isConstant() && b.terms() == 1 ? a.scale(b.coefficient(0).reciprocal()) : null;
+			case "^":
+				if (!b.isConstant() || !b.coefficient(0).isInteger() || b.coefficient(0).signum() < 0)
+					return null;
+				if (a.isConstant())
+				{
+					// folded like any other constant, which is only exact while the result is not huge
+					String c = jCAS.operate(Expr.POWER, a.coefficient(0).toString(), b.coefficient(0).toString());
+					return Rational.isFinite(c) ? constant(Rational.parse(c)) : null;
+				}
+				double p = b.coefficient(0).doubleValue();
+				if (a.degree()*p > MAX_DEGREE)
+					return null;
+				return a.pow((int) p);
+			default:
+				return null;
+		}
+	}
+
+	public int terms()
+	{
+		return exponents.length;
+	}
+
+	public int degree()
+	{
+		return (exponents.length == 0) ? 0 : exponents[exponents.length - 1];
+	}
+
+	public boolean isConstant()
+	{
+		return degree() == 0;
+	}
+
+	// the coefficient of x^e
+	public Rational coefficient(int e)
+	{
+		int i = Arrays.binarySearch(exponents, e);
+		return (i < 0) ? Rational.ZERO : coefficients[i];
+	}
+
+	private String variable(SparsePolynomial p)
+	{
+		return (variable != null) ? variable : p.variable;
+	}
+
+	// this + sign*p, merging the two sorted term lists
+	public SparsePolynomial add(SparsePolynomial p, int sign)
+	{
+		int[] e = new int[terms() + p.terms()];
+		Rational[] c = new Rational[e.length];
+		int i = 0, j = 0, n = 0;
+		while (i < terms() || j < p.terms())
+		{
+			if (j == p.terms() || (i < terms() && exponents[i] < p.exponents[j]))
+			{
+				e[n] = exponents[i];
+				c[n] = coefficients[i++];
+			}
+			else if (i == terms() || p.exponents[j] < exponents[i])
+			{
+				e[n] = p.exponents[j];
+				c[n] = (sign < 0) ? p.coefficients[j++].negate() : p.coefficients[j++];
+			}
+			else
+			{
+				e[n] = exponents[i];
+				c[n] = (sign < 0) ? coefficients[i++].subtract(p.coefficients[j++]) : coefficients[i++].add(p.coefficients[j++]);
+			}
+			if (c[n].signum() != 0)
+				n++;
+		}
+		return new SparsePolynomial(variable(p), Arrays.copyOf(e, n), Arrays.copyOf(c, n));
+	}
+
+	public SparsePolynomial scale(Rational k)
+	{
+		if (k.signum() == 0)
+			return constant(Rational.ZERO);
+		Rational[] c = new Rational[terms()];
+		for (int i = 0; i < c.length; i++)
+			c[i] = k.multiply(coefficients[i]);
+		return new SparsePolynomial(variable, exponents, c);
+	}
+
+	public SparsePolynomial multiply(SparsePolynomial p)
+	{
+		if (terms() == 0 || p.terms() == 0)
+			return constant(Rational.ZERO);
+
+		Rational[] product;
+		if (isDense() && p.isDense() && Math.min(degree(), p.degree()) >= KARATSUBA_THRESHOLD)
+		{
+			product = karatsuba(dense(), p.dense());
+		}
+		else
+		{
+			// schoolbook over the nonzero terms, into one dense accumulator
+			product = zeros(degree() + p.degree() + 1);
+			for (int i = 0; i < terms(); i++)
+				for (int j = 0; j < p.terms(); j++)
+					product[exponents[i] + p.exponents[j]] = product[exponents[i] + p.exponents[j]].add(coefficients[i].multiply(p.coefficients[j]));
+		}
+		return sparse(variable(p), product);
+	}
+
+	// by repeated squaring
+	public SparsePolynomial pow(int n)
+	{
+		SparsePolynomial result = constant(Rational.ONE), square = this;
+		while (n > 0)
+		{
+			if ((n & 1) != 0)
+				result = result.multiply(square);
+			n >>= 1;
+			if (n > 0)
+				square = square.multiply(square);
+		}
+		return result;
+	}
+
+	private boolean isDense()
+	{
+		return terms() >= DENSE*(degree() + 1);
+	}
+
+	private Rational[] dense()
+	{
+		Rational[] c = zeros(degree() + 1);
+		for (int i = 0; i < terms(); i++)
+			c[exponents[i]] = coefficients[i];
+		return c;
+	}
+
+	private static Rational[] zeros(int n)
+	{
+		Rational[] c = new Rational[n];
+		Arrays.fill(c, Rational.ZERO);
+		return c;
+	}
+
+	private static SparsePolynomial sparse(String variable, Rational[] c)
+	{
+		int n = 0;
+		for (Rational d : c)
+			if (d.signum() != 0)
+				n++;
+		int[] e = new int[n];
+		Rational[] k = new Rational[n];
+		n = 0;
+		for (int i = 0; i < c.length; i++)
+		{
+			if (c[i].signum() != 0)
+			{
+				e[n] = i;
+				k[n++] = c[i];
+			}
+		}
+		return new SparsePolynomial(variable, e, k);
+	}
+
+	/*
+	 * Karatsuba multiplication of dense coefficient arrays. With
+	 * a = a0 + a1*x^m and b = b0 + b1*x^m,
+	 * a*b = a0*b0 + ((a0+a1)*(b0+b1) - a0*b0 - a1*b1)*x^m + a1*b1*x^2m,
+	 * three half-size products instead of four.
+	 */
+	static Rational[] karatsuba(Rational[] a, Rational[] b)
+	{
+		Rational[] c = zeros(a.length + b.length - 1);
+		if (Math.min(a.length, b.length) < KARATSUBA_THRESHOLD)
+		{
+			for (int i = 0; i < a.length; i++)
+			{
+				if (a[i].signum() == 0)
+					continue;
+				for (int j = 0; j < b.length; j++)
+					c[i+j] = c[i+j].add(a[i].multiply(b[j]));
+			}
+			return c;
+		}
+
+		int m = Math.max(a.length, b.length)/2;
+		Rational[] a0 = Arrays.copyOfRange(a, 0, Math.min(m, a.length)), a1 = high(a, m);
+		Rational[] b0 = Arrays.copyOfRange(b, 0, Math.min(m, b.length)), b1 = high(b, m);
+
+		Rational[] low = karatsuba(a0, b0);
+		Rational[] high = (a1.length == 0 || b1.length == 0) ? new Rational[0] : karatsuba(a1, b1);
+		Rational[] mid = karatsuba(sum(a0, a1), sum(b0, b1));
+
+		for (int i = 0; i < low.length; i++)
+		{
+			c[i] = c[i].add(low[i]);
+			mid[i] = mid[i].subtract(low[i]);
+		}
+		for (int i = 0; i < high.length; i++)
+		{
+			c[i + 2*m] = c[i + 2*m].add(high[i]);
+			mid[i] = mid[i].subtract(high[i]);
+		}
+		for (int i = 0; i < mid.length && i + m < c.length; i++)
+			c[i + m] = c[i + m].add(mid[i]);
+		return c;
+	}
+
+	// the coefficients from x^m up, shifted down to x^0
+	private static Rational[] high(Rational[] a, int m)
+	{
+		return (a.length <= m) ? new Rational[0] : Arrays.copyOfRange(a, m, a.length);
+	}
+
+	private static Rational[] sum(Rational[] a, Rational[] b)
+	{
+		Rational[] c = zeros(Math.max(a.length, b.length));
+		for (int i = 0; i < a.length; i++)
+			c[i] = a[i];
+		for (int i = 0; i < b.length; i++)
+			c[i] = c[i].add(b[i]);
+		return c;
+	}
+
+	/*
+	 * The polynomial as a Term in the simplifier's canonical form:
+	 * a sum of c*x^e, highest power first and the constant last,
+	 * with a coefficient of 1 left out.
+	 */
+	public Term toTerm()
+	{
+		Term sum = null;
+		for (int i = terms() - 1; i >= 0; i--)
+		{
+			Term term;
+			String c = coefficients[i].toString();
+			if (exponents[i] == 0)
+			{
+				term = Term.constant(c);
+			}
+			else
+			{
+				term = Term.operator("^", Term.variable(variable), Term.constant(Integer.toString(exponents[i])));
+				if (!coefficients[i].isOne())
+					term = Term.operator("*", Term.constant(c), term);
+			}
+			sum = (sum == null) ? term : Term.operator("+", sum, term);
+		}
+		return (sum == null) ? Term.constant("0") : sum;
+	}
+}
@@ -0,0 +1,125 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * A Sum is a whole chain of + flattened into one n-ary sum of
+ * Products plus a constant, with like terms already combined:
+ * "2*x^1 + 1 + 3*x^1 + y^1 + 4" is {x^1: 5, y^1: 1} + 5.
+ *
+ * Terms are grouped by their monomial (Product.monomial), a Term,
+ * so each one finds the terms it is like with a single hash lookup
+ * rather than being compared against every other term. Flattening
+ * and combining a sum of n terms is O(n), and sorting the result
+ * back out O(n log n).
+ *
+ * toTerm() rebuilds the sum as a binary chain in canonical order:
+ * highest degree first, ties broken by monomial, and the constant
+ * last. Terms whose coefficients cancel out are dropped.
+ */
+public class Sum
+{
+	private String constant = "0";
+	private final Map<Term, Product> terms = new HashMap<Term, Product>();
+
+	public static Sum of(Term term)
+	{
+		Sum s = new Sum();
+		s.add(term);
+		return s;
+	}
+
+	private void add(Term sum)
+	{
+		if (!sum.opIs(Expr.ADD))
+		{
+			term(sum);
+			return;
+		}
+
+		// the terms of the chain, left to right, off a stack (a long chain is a deep tree)
+		ArrayDeque<Term> work = new ArrayDeque<Term>();
+		work.push(sum);
+		while (!work.isEmpty())
+		{
+			Term t = work.pop();
+			if (t.opIs(Expr.ADD))
+			{
+				work.push(t.getRight());
+				work.push(t.getLeft());
+			}
+			else
+			{
+				term(t);
+			}
+		}
+	}
+
+	// adds in a single term
+	private void term(Term t)
+	{
+		if (t.typeIs(Expr.CONST))
+		{
+			addConstant(t.getData());
+			return;
+		}
+		Product term = Product.of(t);
+		if (term.isConstant())
+		{
+			addConstant(term.getCoefficient());
+			return;
+		}
+		Term monomial = term.monomial();
+		Product like = terms.get(monomial);
+		if (like == null)
+			terms.put(monomial, term);
+		else
+			like.addCoefficient(term.getCoefficient());
+	}
+
+	private void addConstant(String c)
+	{
+		constant = Product.isZero(constant) ? c : jCAS.operate(Expr.ADD, constant, c);
+	}
+
+	public Term toTerm()
+	{
+		Map<Term, Double> degree = new HashMap<Term, Double>();
+		for (Map.Entry<Term, Product> term : terms.entrySet())
+			degree.put(term.getKey(), term.getValue().degree());
+		List<Term> monomials = new ArrayList<Term>(terms.keySet());
+		Collections.sort(monomials, (a, b) -> {
+			int c = Double.compare(degree.get(b), degree.get(a));
+			return (c != 0) ? c : a.compareTo(b);
+		});
+
+		Term sum = null;
+		for (Term monomial : monomials)
+		{
+			Product term = terms.get(monomial);
+			if (Product.isZero(term.getCoefficient()))
+				continue;
+			sum = plus(sum, term.toTerm());
+		}
+		if (sum == null)
+			return Term.constant(constant);
+		if (!Product.isZero(constant))
+			sum = plus(sum, Term.constant(constant));
+		return sum;
+	}
+
+	// a + b, adding them up if both are constants (a term can cancel down to one, x^1*x^-1 say)
+	private static Term plus(Term a, Term b)
+	{
+		if (a == null)
+			return b;
+		if (a.typeIs(Expr.CONST) && b.typeIs(Expr.CONST))
+			return Term.constant(jCAS.operate(Expr.ADD, a.getData(), b.getData()));
+		if (a.typeIs(Expr.CONST) && Product.isZero(a.getData()))
+			return b;
+		return Term.operator("+", a, b);
+	}
+}
@@ -0,0 +1,347 @@
+/*
+ * SystemSolver solves n equations in n unknowns, F(x) = 0, by
+ * Newton-Raphson: each step solves J(x) dx = -F(x), where J is the
+ * Jacobian matrix of partial derivatives dF_i/dx_j.
+ *
+ * Both F and J are compiled once up front. J is differentiated
+ * symbolically where possible; a row which cannot be (e.g. a
+ * variable exponent) falls back to finite differences. Evaluating
+ * the system writes into arrays allocated once per solver, so an
+ * iteration allocates nothing.
+ *
+ * Factorizing J is the expensive part of a step, so the LU factors
+ * are kept and reused for as long as they keep paying off: while
+ * each step cuts |F| at least tenfold the old factors are used again, and
+ * only when convergence slows down is J re-evaluated and factorized.
+ * Steps that would make |F| larger are halved (with fresh factors)
+ * until they do not.
+ */
+public class SystemSolver
+{
+	// iteration budget per guess
+	public static final int MAX_ITERATIONS = 200;
+
+	/*
+	 * A run has converged once |F| <= RESIDUAL_TOL, or once the step
+	 * (relative to x) is below STEP_TOL while |F| <= ACCEPT_TOL. It
+	 * has diverged once |x| passes DIVERGENCE_BOUND.
+	 */
+	public static final double RESIDUAL_TOL = 1e-12;
+	public static final double ACCEPT_TOL = 1e-6;
+	public static final double STEP_TOL = 1e-12;
+	public static final double DIVERGENCE_BOUND = 1e10;
+
+	// keep the LU factors while |F| shrinks at least this fast
+	public static final double REUSE_RATIO = 0.1;
+
+	// most times one step is halved
+	private static final int MAX_HALVINGS = 30;
+
+	// starting points tried by solve() (every unknown near the same value)
+	private static final double[] GUESSES = {1, -1, 2, -2, 0.5, -0.5, 10, -10, 0};
+
+	private final int n;
+	private final CompiledExpr[] f;
+	// df[i] is null if row i has no symbolic derivative
+	private final CompiledExpr[][] df;
+
+	// work arrays, reused by every iteration
+	private final double[] fx, fnext, dx, x, next, vars;
+	private final double[][] jacobian;
+	private final LU lu;
+
+	// about the last solve
+	private Root.Status status;
+	private int iterations, factorizations;
+	private double residual;
+
+	/*
+	 * equations are the left hand sides of "... = 0", one per
+	 * unknown, and variables holds the unknowns in order.
+	 */
+	public SystemSolver(String[] equations, String variables)
+	{
+		n = variables.length();
+		if (equations.length != n)
+			throw new RuntimeException("Need as many equations as unknowns");
+
+		f = new CompiledExpr[n];
+		df = new CompiledExpr[n][];
+		for (int i = 0; i < n; i++)
+		{
+			f[i] = ExprCompiler.compile(equations[i], variables);
+			try
+			{
+				Node raw = Parser.parse(equations[i], variables);
+				CompiledExpr[] row = new CompiledExpr[n];
+				for (int j = 0; j < n; j++)
+					row[j] = ExprCompiler.compile(jCAS.differentiate(raw, variables.substring(j, j+1)), variables);
+				df[i] = row;
+			}
+			catch (RuntimeException e)
+			{
+				df[i] = null;
+			}
+		}
+
+		fx = new double[n];
+		fnext = new double[n];
+		dx = new double[n];
+		x = new double[n];
+		next = new double[n];
+		vars = new double[n];
+		jacobian = new double[n][n];
+		lu = new LU(n);
+	}
+
+	/*
+	 * Tries each of a handful of starting points until one
+	 * converges. Returns the solution, or null if none did.
+	 * 
+	 * The unknowns start slightly apart, since for a symmetric
+	 * system (x+y+z=6, x*y*z=6, ...) the Jacobian is singular
+	 * wherever they are all equal.
+	 */
+	public double[] solve()
+	{
+		double[] guess = new double[n];
+		for (double g : GUESSES)
+		{
+			for (int i = 0; i < n; i++)
+				guess[i] = g + 0.1*i;
+			double[] sol = solve(guess);
+			if (status == Root.Status.CONVERGED)
+				return sol;
+		}
+		return null;
+	}
+
+	/*
+	 * Runs Newton-Raphson from guess and returns where it ended
+	 * up; getStatus() tells whether that is a solution.
+	 */
+	public double[] solve(double[] guess)
+	{
+		System.arraycopy(guess, 0, x, 0, n);
+		iterations = 0;
+		factorizations = 0;
+
+		residual(x, fx);
+		double norm = norm(fx);
+		// J(x) needs to be evaluated and factorized
+		boolean refactor = true;
+		// the LU factors are of J at the current x
+		boolean fresh = false;
+
+		while (iterations < MAX_ITERATIONS)
+		{
+			if (Double.isNaN(norm) || Double.isInfinite(norm))
+				return finish(Root.Status.NAN, norm);
+			if (norm <= RESIDUAL_TOL)
+				return finish(Root.Status.CONVERGED, norm);
+
+			if (refactor)
+			{
+				jacobian(x, jacobian);
+				factorizations++;
+				if (!lu.factor(jacobian))
+					return finish(Root.Status.STALLED, norm);
+				refactor = false;
+				fresh = true;
+			}
+			iterations++;
+
+			for (int i = 0; i < n; i++)
+				dx[i] = -fx[i];
+			lu.solve(dx);
+
+			// halve the step until |F| goes down (only worth it with fresh factors)
+			double t = 1, nextNorm = Double.NaN;
+			int halvings = 0;
+			for (;;)
+			{
+				for (int i = 0; i < n; i++)
+					next[i] = x[i] + t*dx[i];
+				residual(next, fnext);
+				nextNorm = norm(fnext);
+				if (nextNorm < norm || !fresh || halvings == MAX_HALVINGS)
+					break;
+				t /= 2;
+				halvings++;
+			}
+			if (!(nextNorm < norm))
+			{
+				if (!fresh)
+				{
+					// the old factors were the problem, not the point
+					refactor = true;
+					continue;
+				}
+				return finish(norm <= ACCEPT_TOL ? Root.Status.CONVERGED : Root.Status.STALLED, norm);
+			}
+
+			double step = t*norm(dx);
+			System.arraycopy(next, 0, x, 0, n);
+			System.arraycopy(fnext, 0, fx, 0, n);
+
+			// keep the factors only while they still converge fast
+			refactor = halvings > 0 || nextNorm > REUSE_RATIO*norm;
+			fresh = false;
+			norm = nextNorm;
+
+			if (norm(x) > DIVERGENCE_BOUND)
+				return finish(Root.Status.DIVERGED, norm);
+			if (step <= STEP_TOL*Math.max(1, norm(x)))
+				return finish(norm <= ACCEPT_TOL ? Root.Status.CONVERGED : Root.Status.STALLED, norm);
+		}
+		return finish(Root.Status.MAX_ITER, norm);
+	}
+
+	private double[] finish(Root.Status status, double residual)
+	{
+		this.status=status;
+		this.residual=residual;
+		return x.clone();
+	}
+
+	public Root.Status getStatus()
+	{
+		return status;
+	}
+
+	public int getIterations()
+	{
+		return iterations;
+	}
+
+	// how many times the Jacobian was evaluated and factorized
+	public int getFactorizations()
+	{
+		return factorizations;
+	}
+
+	// |F(x)| where the last solve stopped
+	public double getResidual()
+	{
+		return residual;
+	}
+
+	// out[i] = F_i(at)
+	private void residual(double[] at, double[] out)
+	{
+		for (int i = 0; i < n; i++)
+			out[i] = f[i].eval(at);
+	}
+
+	// J[i][j] = dF_i/dx_j at the point
+	private void jacobian(double[] at, double[][] J)
+	{
+		for (int i = 0; i < n; i++)
+		{
+			if (df[i] != null)
+			{
+				for (int j = 0; j < n; j++)
+					J[i][j] = df[i][j].eval(at);
+			}
+			else
+			{
+				// central difference, one unknown at a time
+				System.arraycopy(at, 0, vars, 0, n);
+				for (int j = 0; j < n; j++)
+				{
+					double h = 1e-6*Math.max(1, Math.abs(at[j]));
+					vars[j] = at[j] + h;
+					double up = f[i].eval(vars);
+					vars[j] = at[j] - h;
+					double down = f[i].eval(vars);
+					vars[j] = at[j];
+					J[i][j] = (up - down)/(2*h);
+				}
+			}
+		}
+	}
+
+	private static double norm(double[] v)
+	{
+		double sum = 0;
+		for (double d : v)
+			sum += d*d;
+		return Math.sqrt(sum);
+	}
+}
+
+/*
+ * LU factorization with partial pivoting, PA = LU, done in place.
+ * Once factored, each solve is two triangular substitutions, which
+ * is what makes reusing the factors across Newton steps cheap.
+ */
+class LU
+{
+	private final int n;
+	private final double[][] a;
+	private final int[] perm;
+	private final double[] tmp;
+
+	LU(int n)
+	{
+		this.n=n;
+		a = new double[n][n];
+		perm = new int[n];
+		tmp = new double[n];
+	}
+
+	// factors m (left untouched); false if it is singular
+	boolean factor(double[][] m)
+	{
+		for (int i = 0; i < n; i++)
+		{
+			System.arraycopy(m[i], 0, a[i], 0, n);
+			perm[i] = i;
+		}
+
+		for (int k = 0; k < n; k++)
+		{
+			int p = k;
+			for (int i = k+1; i < n; i++)
+				if (Math.abs(a[i][k]) > Math.abs(a[p][k]))
+					p = i;
+			if (a[p][k] == 0 || Double.isNaN(a[p][k]))
+				return false;
+			if (p != k)
+			{
+				double[] row = a[p]; a[p] = a[k]; a[k] = row;
+				int t = perm[p]; perm[p] = perm[k]; perm[k] = t;
+			}
+
+			double pivot = a[k][k];
+			for (int i = k+1; i < n; i++)
+			{
+				double l = a[i][k] /= pivot;
+				if (l != 0)
+					for (int j = k+1; j < n; j++)
+						a[i][j] -= l*a[k][j];
+			}
+		}
+		return true;
+	}
+
+	// overwrites b with the solution of (the factored matrix) x = b
+	void solve(double[] b)
+	{
+		for (int i = 0; i < n; i++)
+		{
+			double s = b[perm[i]];
+			for (int j = 0; j < i; j++)
+				s -= a[i][j]*tmp[j];
+			tmp[i] = s;
+		}
+		for (int i = n-1; i >= 0; i--)
+		{
+			double s = tmp[i];
+			for (int j = i+1; j < n; j++)
+				s -= a[i][j]*tmp[j];
+			tmp[i] = s/a[i][i];
+		}
+		System.arraycopy(tmp, 0, b, 0, n);
+	}
+}
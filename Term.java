@@ -0,0 +1,360 @@
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/*
+ * A Term is an immutable, hash-consed expression: there is only
+ * ever one Term for each distinct expression, so two Terms are equal
+ * exactly when they are the same object. A subexpression which
+ * appears many times (x^1 in a long polynomial, say) is stored once
+ * and shared by every parent that uses it, rather than copied.
+ *
+ * Each Term caches its hash and the size of the tree it stands for,
+ * so equality, hashing and like-term checks cost the same no matter
+ * how big the expression is. This makes Terms good keys for maps.
+ *
+ * Terms are also totally ordered (compareTo), which is what keeps the
+ * operands of a Sum or Product in one canonical order.
+ *
+ * A function call (sin(x), say) is a Term with just the one operand,
+ * its argument, which is kept as the left one.
+ *
+ * Terms live alongside Nodes: of(Node) and toNode() convert between
+ * the two. The simplifier works on Terms (see jCAS.simplifyAST):
+ * since nothing can change a Term, a rewrite builds new Terms only
+ * on the path from the rewritten subterm up to the root, and the
+ * rest of the tree is shared between the term before and after.
+ *
+ * Nothing here recurses over the tree (of, toNode and compareTo keep
+ * their own stacks), so how deep a Term can be is limited by memory
+ * rather than by the call stack.
+ */
+public final class Term implements Comparable<Term>
+{
+	// every live Term, so that building an equal one returns it instead
+	private static final Map<Term, WeakReference<Term>> table = new WeakHashMap<Term, WeakReference<Term>>();
+
+	private final int type, op;
+	private final String data;
+	private final Term right, left;
+	private final int hash;
+	private final long size;
+
+	private Term(int type, String data, Term right, Term left)
+	{
+		this.type=type;
+		this.op=(type == Expr.OPERATOR) ? Expr.opcode(data) : -1;
+		this.data=data;
+		this.right=right;
+		this.left=left;
+
+		int h = type*31 + data.hashCode();
+		if (right != null)
+			h = h*31 + right.hash;
+		if (left != null)
+			h = h*31 + left.hash;
+		hash = h;
+		size = 1 + (right != null ? right.size : 0) + (left != null ? left.size : 0);
+	}
+
+	private static Term intern(Term t)
+	{
+		synchronized (table)
+		{
+			WeakReference<Term> ref = table.get(t);
+			Term existing = (ref != null) ? ref.get() : null;
+			if (existing != null)
+				return existing;
+			table.put(t, new WeakReference<Term>(t));
+			return t;
+		}
+	}
+
+	public static Term constant(String c)
+	{
+		return intern(new Term(Expr.CONST, c, null, null));
+	}
+
+	public static Term variable(String v)
+	{
+		return intern(new Term(Expr.VARIABLE, v, null, null));
+	}
+
+	// left op right
+	public static Term operator(String op, Term left, Term right)
+	{
+		return intern(new Term(Expr.OPERATOR, op, right, left));
+	}
+
+	// name(argument), name being one of MathFunction's
+	public static Term function(String name, Term argument)
+	{
+		return intern(new Term(Expr.FUNCTION, name, null, argument));
+	}
+
+	/*
+	 * The Term for an AST. Equal subtrees of the AST all become
+	 * the one shared Term.
+	 */
+	public static Term of(Node node)
+	{
+		// post-order: an operator is visited twice, and on the second
+		// visit the Terms for both its operands are on top of terms
+		ArrayDeque<Node> work = new ArrayDeque<Node>();
+		ArrayDeque<Boolean> visited = new ArrayDeque<Boolean>();
+		ArrayDeque<Term> terms = new ArrayDeque<Term>();
+		work.push(node);
+		visited.push(false);
+		while (!work.isEmpty())
+		{
+			Node n = work.pop();
+			boolean operandsDone = visited.pop();
+			if (n.typeIs(Expr.CONST))
+			{
+				terms.push(constant(n.getData().getData()));
+			}
+			else if (n.typeIs(Expr.VARIABLE))
+			{
+				terms.push(variable(n.getData().getData()));
+			}
+			else if (operandsDone)
+			{
+				if (n.typeIs(Expr.FUNCTION))
+				{
+					terms.push(function(n.getData().getData(), terms.pop()));
+					continue;
+				}
+				Term left = terms.pop(), right = terms.pop();
+				terms.push(operator(n.getData().getData(), left, right));
+			}
+			else if (n.typeIs(Expr.FUNCTION))
+			{
+				work.push(n);
+				visited.push(true);
+				work.push(n.getChild(0));
+				visited.push(false);
+			}
+			else
+			{
+				// the right operand is done first, so the left one ends up on top
+				work.push(n);
+				visited.push(true);
+				work.push(n.getChild(1));
+				visited.push(false);
+				work.push(n.getChild(0));
+				visited.push(false);
+			}
+		}
+		return terms.pop();
+	}
+
+	/*
+	 * A fresh AST for this Term. Shared subterms are copied out,
+	 * so the Nodes can be rewritten in place as usual.
+	 */
+	public Node toNode()
+	{
+		// each Term on the stack is paired with its Node, whose children are still to come
+		ArrayDeque<Term> terms = new ArrayDeque<Term>();
+		ArrayDeque<Node> nodes = new ArrayDeque<Node>();
+		Node root = node(this);
+		terms.push(this);
+		nodes.push(root);
+		while (!terms.isEmpty())
+		{
+			Term t = terms.pop();
+			Node n = nodes.pop();
+			if (t.left == null)
+				continue;
+			if (t.right == null)
+			{
+				// a function's argument
+				Node a = n.addChild(node(t.left));
+				terms.push(t.left);
+				nodes.push(a);
+				continue;
+			}
+			Node r = n.addChild(node(t.right)), l = n.addChild(node(t.left));
+			terms.push(t.right);
+			nodes.push(r);
+			terms.push(t.left);
+			nodes.push(l);
+		}
+		return root;
+	}
+
+	// a Node for t alone, without its operands
+	private static Node node(Term t)
+	{
+		switch (t.type)
+		{
+			case Expr.CONST:    return new Node(new ConstExpr(t.data));
+			case Expr.VARIABLE: return new Node(new VariableExpr(t.data));
+			case Expr.FUNCTION: return new Node(new FunctionExpr(t.data));
+			default:            return new Node(new OperatorExpr(t.data));
+		}
+	}
+
+	// type is one of Expr.CONST, Expr.VARIABLE, Expr.OPERATOR and Expr.FUNCTION
+	public boolean typeIs(int type)
+	{
+		return this.type == type;
+	}
+
+	// op is an opcode, such as Expr.ADD
+	public boolean opIs(int op)
+	{
+		return this.op == op;
+	}
+
+	public boolean dataIs(String data)
+	{
+		return this.data.equals(data);
+	}
+
+	public boolean dataIsOr(String a, String b)
+	{
+		return dataIs(a) || dataIs(b);
+	}
+
+	public int getType()
+	{
+		return type;
+	}
+
+	// which operator this is (see Expr.OPERATORS), or -1 if it is not one
+	public int getOp()
+	{
+		return op;
+	}
+
+	public String getData()
+	{
+		return data;
+	}
+
+	public Term getLeft()
+	{
+		return left;
+	}
+
+	public Term getRight()
+	{
+		return right;
+	}
+
+	// a function's argument
+	public Term getArgument()
+	{
+		return left;
+	}
+
+	// number of nodes in the tree this Term stands for (shared ones counted every time)
+	public long size()
+	{
+		return size;
+	}
+
+	/*
+	 * Used only while interning: the children are already interned,
+	 * so comparing them by identity compares them structurally.
+	 * Once interned, equal Terms are the same object.
+	 */
+	@Override
+	public boolean equals(Object o)
+	{
+		if (this == o)
+			return true;
+		if (!(o instanceof Term))
+			return false;
+		Term t = (Term) o;
+		return hash == t.hash && right == t.right && left == t.left && type == t.type && data.equals(t.data);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return hash;
+	}
+
+	/*
+	 * Constants come before variables, which come before operators
+	 * (the kinds are numbered in that order, see Expr).
+	 * Otherwise Terms are ordered by their data (a variable's name,
+	 * say) and then by their operands, left first.
+	 */
+	@Override
+	public int compareTo(Term t)
+	{
+		// down the left operands in a loop, with the pairs of right
+		// operands still to compare on a stack (made only if needed)
+		Term a = this, b = t;
+		ArrayDeque<Term> rights = null;
+		while (true)
+		{
+			if (a != b)
+			{
+				int c = a.type - b.type;
+				if (c == 0)
+					c = a.data.compareTo(b.data);
+				if (c != 0)
+					return c;
+				if (a.left != null)
+				{
+					if (a.right != b.right)
+					{
+						if (rights == null)
+							rights = new ArrayDeque<Term>();
+						rights.push(a.right);
+						rights.push(b.right);
+					}
+					a = a.left;
+					b = b.left;
+					continue;
+				}
+			}
+			if (rights == null || rights.isEmpty())
+				return 0;
+			b = rights.pop();
+			a = rights.pop();
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		// Terms still to print, and the text in between them
+		StringBuilder sb = new StringBuilder();
+		ArrayDeque<Object> work = new ArrayDeque<Object>();
+		work.push(this);
+		while (!work.isEmpty())
+		{
+			Object o = work.pop();
+			if (o instanceof String)
+			{
+				sb.append((String) o);
+				continue;
+			}
+			Term t = (Term) o;
+			if (t.left == null)
+			{
+				sb.append(t.data);
+				continue;
+			}
+			if (t.right == null)
+			{
+				sb.append(t.data).append("(");
+				work.push(")");
+				work.push(t.left);
+				continue;
+			}
+			work.push(")");
+			work.push(t.right);
+			work.push(t.data);
+			work.push(t.left);
+			sb.append("(");
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * A Token is one piece of an infix expression as the Lexer reads
+ * it: a number, a symbol (a variable's name), an operator or a
+ * bracket.
+ *
+ * Everything the parser needs to know about a token is worked out
+ * once, when it is read: its kind, which operator it is (its opcode,
+ * see Expr, so precedence is an array lookup), the value of a
+ * number, and where in the input it started, for error messages.
+ * Symbols are interned, so every "x" in an expression is the same
+ * String.
+ */
+public final class Token
+{
+	// the kinds of token
+	public static final int NUMBER = 0, SYMBOL = 1, OPERATOR = 2, LEFT = 3, RIGHT = 4;
+	// the text of each operator, by opcode
+	private static final String[] OPERATOR_TEXT = {"+", "-", "*", "/", "^"};
+
+	private final int kind, operator, offset;
+	private final double value;
+	private final String text;
+
+	private Token(int kind, int operator, double value, String text, int offset)
+	{
+		this.kind=kind;
+		this.operator=operator;
+		this.value=value;
+		this.text=text;
+		this.offset=offset;
+	}
+
+	public static Token number(String text, double value, int offset)
+	{
+		return new Token(NUMBER, -1, value, text, offset);
+	}
+
+	public static Token symbol(String name, int offset)
+	{
+		return new Token(SYMBOL, -1, Double.NaN, name.intern(), offset);
+	}
+
+	public static Token operator(int id, int offset)
+	{
+		return new Token(OPERATOR, id, Double.NaN, OPERATOR_TEXT[id], offset);
+	}
+
+	public static Token bracket(boolean left, int offset)
+	{
+		return new Token(left ? LEFT : RIGHT, -1, Double.NaN, left ? "(" : ")", offset);
+	}
+
+	public boolean is(int kind)
+	{
+		return this.kind == kind;
+	}
+
+	public int getKind()
+	{
+		return kind;
+	}
+
+	// which operator this is (see Expr.OPERATORS), or -1 if it is not one
+	public int getOperator()
+	{
+		return operator;
+	}
+
+	public int precedence()
+	{
+		return Expr.precedence(operator);
+	}
+
+	// a^b^c is a^(b^c), everything else groups to the left
+	public boolean isRightAssociative()
+	{
+		return operator == Expr.POWER;
+	}
+
+	// the value of a number
+	public double getValue()
+	{
+		return value;
+	}
+
+	public String getText()
+	{
+		return text;
+	}
+
+	// where in the input the token starts
+	public int getOffset()
+	{
+		return offset;
+	}
+
+	@Override
+	public String toString()
+	{
+		return text;
+	}
+}
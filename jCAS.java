@@ -8,17 +8,10 @@
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.text.DecimalFormat;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-import java.util.Queue;
-import java.util.Scanner;
-import java.util.Stack;
+import java.util.HashSet;
+import java.util.Set;
 
 /*
  * This is the main class which represents the
@@ -37,6 +30,47 @@ public class jCAS {
 	 */
 	public static boolean debug=false;
 	private String output="";
+	private Root[] roots = new Root[0];
+	private RootSet solution = new RootSet(ROOT_TOL);
+	
+	/*
+	 * Tolerances for Newton's Method. A run has converged once
+	 * |f(x)| <= RESIDUAL_TOL, or once the step (relative to x) is
+	 * below STEP_TOL while |f(x)| <= ACCEPT_TOL.
+	 */
+	public static final int MAX_ITERATIONS = 1000;
+	public static final double RESIDUAL_TOL = 1e-12;
+	public static final double ACCEPT_TOL = 1e-6;
+	public static final double STEP_TOL = 1e-12;
+	public static final double DIVERGENCE_BOUND = 1e10;
+	public static final int OSCILLATION_LIMIT = 50;
+	
+	/* roots closer than this (relative) are the same root */
+	public static final double ROOT_TOL = 1e-4;
+	
+	/*
+	 * Most distinct roots one solve reports. Newton starts from 201
+	 * guesses, so more roots than this means most guesses gave a root
+	 * of their own: f is (nearly) zero everywhere or oscillates much
+	 * faster than the guesses are spaced, and the list is no use.
+	 */
+	public static final int MAX_ROOTS = 100;
+	
+	/* most simplification passes before giving up on a fixed point */
+	public static final int MAX_PASSES = 100;
+	
+	/* most bits operate works out a power of a constant in exactly (some 20000 digits) */
+	public static final int MAX_EXACT_BITS = 1 << 16;
+	private int passes, rewrites;
+	
+	/*
+	 * Simplified forms of recently simplified expressions, keyed by
+	 * their AST straight from the infix. Only whole expressions are
+	 * cached: how a subtree simplifies depends on what is around it
+	 * (canonicalForm looks at the parent), so a cached subtree could
+	 * come out differently than it would have in place.
+	 */
+	public static final SimplifyCache CACHE = new SimplifyCache(1024);
 	
 	public static void main(String[] args) {
 		jGUI gui = new jGUI();
@@ -45,49 +79,173 @@ public class jCAS {
 	/*
 	 * The constructor for jCAS objects. Acts as essentially a main
 	 * function in that all "main" methods are called from here.
+	 * The command is one of "simplify", "solve" or "diff".
+	 * 
+	 * solve can also be given a domain [lo, hi], in which case every
+	 * root in it is found by interval root isolation (IntervalSolver)
+	 * instead of Newton's Method from a fixed set of guesses.
 	 */
 	public jCAS(String variables, String infix, boolean display, boolean solve) {
-		// add spaces between terms
-		infix = addSpaces(infix);
+		this(variables, infix, display, solve ? "solve" : "simplify");
+	}
+	
+	public jCAS(String variables, String infix, boolean display, String command) {
+		this(variables, infix, display, command, Double.NaN, Double.NaN);
+	}
+	
+	/*
+	 * Solves a system of equations (each one the left hand side
+	 * of "... = 0") for all of the variables at once; see SystemSolver.
+	 */
+	public jCAS(String variables, String[] equations, boolean display) {
+		SystemSolver system = new SystemSolver(equations, variables);
+		double[] sol = system.solve();
+		if (debug)
+			System.out.println(system.getStatus() + ", " + system.getIterations() + " iterations, "
+					+ system.getFactorizations() + " factorizations, |F| = " + system.getResidual());
 		
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < variables.length(); i++)
+		{
+			sb.append(variables.charAt(i)).append(" = ");
+			sb.append(sol != null ? String.valueOf(round(sol[i])) : "[]");
+			sb.append(i < variables.length()-1 ? ", " : " \n");
+		}
+		output = sb.toString();
+	}
+	
+	public jCAS(String variables, String infix, boolean display, String command, double lo, double hi) {
 		// build AST from infix
-		Node root = infixToAST(infix, variables);
-		String infixVer="";
+		Node parsed = Parser.parse(infix, variables);
 		
-		// continues to simplify AST until fully simplified
-		while (!infixVer.equals(ASTtoInfix(root, "")))
+		// continues to simplify AST until fully simplified, unless
+		// the same AST has been simplified before
+		Term key = Term.of(parsed);
+		Term known = CACHE.get(key);
+		if (known == null)
 		{
-			infixVer = ASTtoInfix(root, "");
-			simplifyAST(root, root);
+			Simplification state = new Simplification();
+			known = simplifyAST(canonicalForm(key, null, null), null, null, state);
+			known = fixedPoint(known, state);
+			passes = state.getPasses();
+			rewrites = state.getRewrites();
+			CACHE.put(key, known);
 		}
+		Node root = known.toNode();
+		String infixVer = ASTtoInfix(root, "");
 		
-		// Differentiates between solve and simplify command-calls
-		if (solve)
+		// Differentiates between solve, diff and simplify command-calls
+		if (command.equals("solve"))
 		{
-			List<Double> solution = new ArrayList<Double>();
-			for (double i = -100; i <= 100; i+=1)
+			// the simplifier works on Terms, so parsed is still just as it was read
+			Node raw = parsed;
+			
+			// polynomials get all their roots at once, anything else goes to Newton
+			// (or, given a domain, to interval root isolation)
+			boolean domain = !Double.isNaN(lo) && !Double.isNaN(hi);
+			String variable = variables.isEmpty() ? "" : variables.substring(0, 1);
+			double[] poly = Polynomial.coefficients(raw, variable);
+			roots = null;
+			
+			// an equation that holds for every x (x=x, 0*x=0...) has no roots to list
+			boolean identity = (poly != null && Polynomial.isZero(poly)) || known.dataIsOr("0", "0.0");
+			// with no variable there is nothing to solve for: it either holds or it doesn't
+			if (identity || variable.isEmpty())
+			{
+				roots = new Root[0];
+			}
+			else if (poly != null)
+			{
+				roots = Polynomial.solve(poly);
+				if (roots != null && domain)
+					roots = inDomain(roots, lo, hi);
+			}
+			IntervalSolver.Result isolated = null;
+			if (roots == null && domain)
 			{
-				double sol = solve(infix, variables, i);
-				if (solution.indexOf(sol) == -1)
+				isolated = isolateRoots(raw, variable, lo, hi);
+				roots = isolated.getRoots();
+				Interval[] zeros = isolated.getZeros();
+				identity = zeros.length == 1 && zeros[0].getLo() <= lo && zeros[0].getHi() >= hi;
+				
+				// intervals cannot see that x/x=1 holds throughout, only a swarm of tiny
+				// boxes, so more roots than are shown gets the same check as Newton's
+				if (!identity && roots.length > MAX_ROOTS && hi > lo)
 				{
-					solution.add(sol);
+					Root[] runs = RootSearch.search(ExprCompiler.compile(raw, variables), null, variables, lo, hi, (hi - lo)/200);
+					if (isEverywhereRoot(runs))
+					{
+						identity = true;
+						roots = runs;
+					}
 				}
 			}
+			if (roots == null)
+			{
+				CompiledExpr f = ExprCompiler.compile(raw, variables);
+				CompiledExpr df = compileDerivative(raw, variables);
+				roots = RootSearch.search(f, df, variables, -100, 100, 1);
+				identity = isEverywhereRoot(roots);
+			}
 			
-			output += variables.charAt(0) + " = [";
-			for (int i = 0; i < solution.size(); i++)
+			solution = new RootSet(ROOT_TOL, MAX_ROOTS);
+			for (Root run : roots)
 			{
-				output += solution.get(i);
-				if (i != solution.size()-1)
-					output += ", ";
+				if (debug)
+					System.out.println(run);
+				if (run.isConverged() && !identity)
+					solution.add(run.getValue(), run.getResidual(), run.getMultiplicity());
 			}
-			output += "] \n";
 			
-			// safe check for garbage solutions
-			if (output.length() > 100)
+			StringBuilder sb = new StringBuilder();
+			if (!variable.isEmpty())
+				sb.append(variable).append(" = ");
+			if (identity)
 			{
-				output = variables.charAt(0) + " = []";
+				sb.append("any real number");
+				if (isUndefinedSomewhere(roots))
+					sb.append(" where it is defined");
+				if (domain)
+					sb.append(" in [").append(lo).append(", ").append(hi).append("]");
 			}
+			else
+			{
+				// roots too close to tell apart at 3 decimals are only shown once
+				sb.append("[");
+				double last = Double.NaN;
+				for (int i = 0; i < solution.size(); i++)
+				{
+					double sol = round(solution.get(i));
+					if (sol == last)
+						continue;
+					if (i != 0)
+						sb.append(", ");
+					sb.append(sol);
+					last = sol;
+				}
+				if (solution.isTruncated())
+					sb.append(", ...");
+				sb.append("]");
+				
+				// stretches where f is zero throughout, and what interval root isolation never got to
+				if (isolated != null)
+				{
+					for (Interval zero : isolated.getZeros())
+						sb.append(", any real number in [").append(round(zero.getLo())).append(", ").append(round(zero.getHi())).append("]");
+					Interval[] unsearched = isolated.getUnsearched();
+					if (unsearched.length > 0)
+						sb.append(" (search incomplete between ").append(round(unsearched[0].getLo())).append(" and ")
+							.append(round(unsearched[unsearched.length-1].getHi())).append(")");
+				}
+			}
+			sb.append(" \n");
+			output = sb.toString();
+		}
+		else if (command.equals("diff"))
+		{
+			String variable = variables.isEmpty() ? "" : variables.substring(0, 1);
+			Term derivative = Term.of(differentiate(root, variable));
+			output = simplify(canonicalForm(derivative, null, null));
 		}
 		else
 		{
@@ -95,29 +253,280 @@ public class jCAS {
 		}
 	}
 	
+	/*
+	 * Whether every Newton run started on a root, i.e. f was already
+	 * zero at every one of the guesses. Then f is zero everywhere as
+	 * far as solve can tell (sin(x)^2+cos(x)^2=1), even though it did
+	 * not simplify to 0. Guesses where f is undefined (x=0 in x/x=1)
+	 * do not count either way.
+	 */
+	private static boolean isEverywhereRoot(Root[] runs)
+	{
+		boolean any = false;
+		for (Root run : runs)
+		{
+			if (run.getStatus() == Root.Status.NAN && run.getIterations() == 0)
+				continue;
+			if (!run.isConverged() || run.getIterations() != 0)
+				return false;
+			any = true;
+		}
+		return any;
+	}
+	
+	// whether a Newton run started where f is undefined (x=0 in x/x=1)
+	private static boolean isUndefinedSomewhere(Root[] runs)
+	{
+		for (Root run : runs)
+		{
+			if (run.getStatus() == Root.Status.NAN && run.getIterations() == 0)
+				return true;
+		}
+		return false;
+	}
+	
+	/*
+	 * Simplifies root, pass after pass, until it stops changing.
+	 * Returns the infix of the simplified expression.
+	 */
+	public static String simplify(Term root)
+	{
+		return ASTtoInfix(fixedPoint(root, new Simplification()).toNode(), "");
+	}
+	
+	/*
+	 * Runs simplifyAST passes until the term stops changing. Usually
+	 * that is a pass which makes no rewrites at all, but some rules
+	 * undo each other (constSimp takes the 1 out of 1*x^1 and
+	 * canonicalForm puts it back, or two factors keep trading places),
+	 * so the passes also end once the term comes back to one it has
+	 * already been. Terms are hash-consed, so that is a lookup of
+	 * the term itself. MAX_PASSES guards against anything else.
+	 * 
+	 * The passes and rewrites are counted in state.
+	 */
+	public static Term fixedPoint(Term root, Simplification state)
+	{
+		Set<Term> seen = new HashSet<Term>();
+		seen.add(root);
+		for (int pass = 0; pass < MAX_PASSES; pass++)
+		{
+			state.countPass();
+			int before = state.getRewrites();
+			root = simplifyAST(root, null, null, state);
+			if (state.getRewrites() == before || !seen.add(root))
+				break;
+		}
+		return root;
+	}
+	
 	public String getOutput()
 	{
 		return output;
 	}
 	
+	// simplification passes the last simplify took (0 if it was cached)
+	public int getPasses()
+	{
+		return passes;
+	}
+	
+	// rewrites the last simplify made
+	public int getRewrites()
+	{
+		return rewrites;
+	}
+	
+	/*
+	 * The outcome of every Newton run of the last solve,
+	 * in the order of their initial guesses.
+	 */
+	public Root[] getRoots()
+	{
+		return roots;
+	}
+	
+	/*
+	 * The distinct roots of the last solve, in ascending
+	 * order, with their multiplicity and residual.
+	 */
+	public RootSet getSolution()
+	{
+		return solution;
+	}
+	
 	/*
 	 * Implements Newton's Method to solve the equation a=b
 	 * by finding roots of (a-b), which is solving a-b=0.
+	 * 
+	 * The equation is compiled once up front so that every
+	 * iteration is a direct call on f rather than a round
+	 * trip through the string and eval.
 	 */
 	public static double solve(String eq, String variables, double guess)
+	{
+		return solve(ExprCompiler.compile(eq, variables), variables, guess);
+	}
+	
+	public static double solve(CompiledExpr f, String variables, double guess)
+	{
+		return round(newton(f, null, variables, guess, null).getValue());
+	}
+	
+	/*
+	 * The Newton iteration itself. Rather than running a fixed
+	 * number of iterations it stops as soon as the residual f(x)
+	 * or the step size is small enough, and gives up early if x
+	 * diverges, f(x) becomes NaN or f(x) stops improving.
+	 * 
+	 * Once two iterates land on opposite sides of the axis the
+	 * root is bracketed. From then on any Newton step that leaves
+	 * the bracket is replaced by a bisection step, so the run
+	 * cannot wander off again.
+	 * 
+	 * If known is given, the iteration also stops as soon as x
+	 * lands on a root that a run from a smaller guess has already
+	 * found (see RootSearch).
+	 * 
+	 * df is the exact derivative of f (see compileDerivative).
+	 * If it is null, a finite difference is used instead.
+	 * f is solved for the first of its variables; any others
+	 * are held at 0.
+	 */
+	public static Root newton(CompiledExpr f, CompiledExpr df, String variables, double guess, RootSearch.KnownRoots known)
 	{
 		/* initial guess */ double x = guess;
-		/* # of iterations */ int n = 1000;
+		/* iteration budget */ int n = MAX_ITERATIONS;
 		/* approximately 0 */ double h = 0.0001;
-        
+		/* variable slots */ double[] vars = new double[variables.length()];
+		
+		double fx = eval(f, vars, x);
+		double best = Math.abs(fx);
+		int sinceBest = 0;
+		
+		// bracket [a, b] with f(a), f(b) of opposite sign, once one is seen
+		boolean bracketed = false;
+		double a = 0, fa = 0, b = 0;
+		
+		// ratio of the last two (exact Newton) step sizes, to estimate the multiplicity
+		double lastStep = Double.NaN, ratio = Double.NaN;
+		
 		for (int i = 0; i < n; i++)
 		{
-			x -= eval(plugIn(eq, x, variables))/deriv(x,h, eq, variables);
+			if (Double.isNaN(fx) || Double.isInfinite(fx))
+				return new Root(guess, x, fx, i, Root.Status.NAN, bracketed);
+			if (Math.abs(fx) <= RESIDUAL_TOL)
+				return new Root(guess, x, fx, i, Root.Status.CONVERGED, bracketed, multiplicity(ratio));
+			
+			double slope = (df != null) ? eval(df, vars, x) : deriv(f, vars, x, h);
+			double next = x - fx/slope;
+			if (bracketed && !(next > Math.min(a, b) && next < Math.max(a, b)))
+			{
+				next = (a + b)/2;
+			}
+			if (Double.isNaN(next) || Double.isInfinite(next))
+				return new Root(guess, x, fx, i, Root.Status.NAN, bracketed);
+			
+			double fnext = eval(f, vars, next);
+			if (!bracketed)
+			{
+				if (fx*fnext < 0)
+				{
+					bracketed = true;
+					a = x; fa = fx; b = next;
+				}
+			}
+			else if (fa*fnext < 0)
+			{
+				b = next;
+			}
+			else
+			{
+				a = next; fa = fnext;
+			}
+			
+			double step = Math.abs(next - x);
+			ratio = (df != null) ? step/lastStep : Double.NaN;
+			lastStep = step;
+			x = next;
+			fx = fnext;
+			
+			if (known != null)
+			{
+				double root = known.near(x, guess);
+				if (!Double.isNaN(root))
+					return new Root(guess, root, eval(f, vars, root), i+1, Root.Status.KNOWN, bracketed);
+			}
+			
+			if (Math.abs(x) > DIVERGENCE_BOUND)
+				return new Root(guess, x, fx, i+1, Root.Status.DIVERGED, bracketed);
+			
+			double scale = Math.max(1, Math.abs(x));
+			if (step <= STEP_TOL*scale || (bracketed && Math.abs(b - a) <= STEP_TOL*scale))
+			{
+				Root.Status status = Math.abs(fx) <= ACCEPT_TOL ? Root.Status.CONVERGED : Root.Status.STALLED;
+				return new Root(guess, x, fx, i+1, status, bracketed, multiplicity(ratio));
+			}
+			
+			if (Math.abs(fx) < best)
+			{
+				best = Math.abs(fx);
+				sinceBest = 0;
+			}
+			else if (++sinceBest > OSCILLATION_LIMIT)
+			{
+				return new Root(guess, x, fx, i+1, Root.Status.OSCILLATING, bracketed);
+			}
 		}
 		
-		BigDecimal bd = new BigDecimal(x);
-	    bd = bd.setScale(3, RoundingMode.HALF_UP);
-	    return bd.doubleValue();
+		return new Root(guess, x, fx, n, Root.Status.MAX_ITER, bracketed);
+	}
+	
+	/*
+	 * Finds every root in [lo, hi] of the AST by interval
+	 * branch and bound; see IntervalSolver. Uses the symbolic
+	 * derivative for interval Newton steps where there is one.
+	 */
+	public static IntervalSolver.Result isolateRoots(Node raw, String variable, double lo, double hi)
+	{
+		IntervalExpr f = IntervalExpr.compile(raw, variable);
+		IntervalExpr df;
+		try
+		{
+			df = IntervalExpr.compile(differentiate(raw, variable), variable);
+		}
+		catch (RuntimeException e)
+		{
+			df = null;
+		}
+		return IntervalSolver.isolate(f, df, lo, hi);
+	}
+	
+	// the roots whose values lie in [lo, hi]
+	public static Root[] inDomain(Root[] roots, double lo, double hi)
+	{
+		int n = 0;
+		Root[] kept = new Root[roots.length];
+		for (Root root : roots)
+		{
+			if (root.getValue() >= lo && root.getValue() <= hi)
+				kept[n++] = root;
+		}
+		return Arrays.copyOf(kept, n);
+	}
+	
+	/*
+	 * Newton's Method only converges linearly on a root of
+	 * multiplicity m, with each step about (m-1)/m of the one
+	 * before it. On a simple root the ratio goes to 0. (With a
+	 * finite difference derivative the ratio means nothing, so
+	 * those runs always report 1.)
+	 */
+	public static int multiplicity(double ratio)
+	{
+		if (!(ratio > 0.4 && ratio < 1))
+			return 1;
+		return (int) Math.round(1/(1 - ratio));
 	}
 	
 	/*
@@ -137,491 +546,491 @@ public class jCAS {
 	 * - op & op
 	 * From these three starting points, the method combines constants
 	 * that are linked across all acceptable ranges (i.e. within same precedence)
+	 * 
+	 * The rules themselves are kept in RuleSets indexed by the operator
+	 * (or leaf type) they apply to, so each node only tries the rules
+	 * that could match it:
+	 * - CANONICAL: the canonicalForm rules
+	 * - DISTRIBUTION: * over + or -, or for a polynomial in one variable,
+	 *   expanding the whole thing at once as a SparsePolynomial
+	 * - LIKE_TERMS: flattens a whole + or * chain into a Sum or Product
+	 *   and rebuilds it sorted, with like terms and factors combined
+	 * - CONSTANTS: constSimp, for every operator, and functionSimp for
+	 *   every function
+	 * 
+	 * The expression is a Term, which is immutable, so nothing is
+	 * rewritten in place: every rule returns the rewritten term (or the
+	 * term it was given, if it does not match), and simplifyAST returns
+	 * the rewritten subtree. A parent is only rebuilt if one of its
+	 * operands changed, so a rewrite costs new Terms along the path
+	 * from it up to the root, and everything else is shared with the
+	 * term before. The rules cannot look up at the parent, so they
+	 * are told the parent's operator (null at the root) and the other
+	 * operand under it.
+	 * 
+	 * Rewrites are counted in state (see Simplification), and a subtree
+	 * in which a whole pass made no rewrites is skipped by later passes
+	 * wherever it turns up in the same context.
+	 * 
+	 * The walk down the tree keeps its own stack rather than recursing,
+	 * since a long chain of + from a generated expression is a tree
+	 * tens of thousands of levels deep.
 	 */
-	public static void simplifyAST(Node node, Node root)
+	public static Term simplifyAST(Term term, String parent, Term sibling, Simplification state)
 	{
-		if (debug)
-		{
-			System.out.println("----------------------------------------");
-			printAST(root, " ");
-			System.out.println(ASTtoInfix(root,""));
-			System.out.println("++++++++++++++++++++++++++++++++++++++++");
-			printAST(node, " ");
-		}
+		// a frame for each term on the way down (see Simplification.Frame)
+		int top = 0;
 		
-		canonicalForm(node, root);
-		
-		// distribution of * over + or -
-		if (node.dataIs("*"))
+		// the subterm to go into next, if any, and the last one finished
+		Term next = term, result = null;
+		String nextParent = parent;
+		Term nextSibling = sibling;
+		while (true)
 		{
-			for (int i = 0; i < node.getChildren().size(); i++)
+			if (next != null)
 			{
-				if (node.getChild(i).dataIsOr("+","-"))
+				if (state.isClean(next, nextParent, nextSibling))
 				{
-					Node child;
-					Node dist1 = new Node(new OperatorExpr("*"));
-					child=new Node();
-					dist1.addChild(child.setNode(node.getChild((i+1)%2)));
-					child=new Node();
-					dist1.addChild(child.setNode(node.getChild(i).getChild(0)));
-					
-					Node dist2 = new Node(new OperatorExpr("*"));
-					child=new Node();
-					dist2.addChild(child.setNode(node.getChild((i+1)%2)));
-					child=new Node();
-					dist2.addChild(child.setNode(node.getChild(i).getChild(1)));
-					
-					Node dist = new Node(new OperatorExpr(node.getChild(i).getData().getData()));
-					dist.addChild(dist1);
-					dist.addChild(dist2);
-					
-					node.setNode(dist);
-					break;
+					result = next;
 				}
+				else
+				{
+					Simplification.Frame f = state.frame(top++);
+					f.before = state.getRewrites();
+					f.term = rewrite(next, nextParent, nextSibling, state);
+					f.parent = nextParent;
+					f.sibling = nextSibling;
+					f.operandsDone = 0;
+				}
+				next = null;
+				continue;
 			}
-		}
-		
-		// combine like terms
-		// +
-		//   *
-		//     ^
-		//       p
-		//       x
-		//     a
-		//   *
-		//     ^
-		//       p
-		//       x
-		//     b
-		// (a+b)*x^p
-		
-		
-		
-		// const simplification (extension of combine like terms for x^0)
-		if (node.hasChildren())
-		{
-			constSimp(node);
-		}
-		
-		canonicalForm(node, root);
-		fillParentNodes(root);
-		
-		// branch further down and repeat simplification
-		for (Node child : node.getChildren())
-		{
-			simplifyAST(child, root);
-		}
-	}
-	
-	public static void canonicalForm(Node node, Node root)
-	{		
-		// ensures nonconst*const --> const*nonconst
-		if (node.dataIs("*"))
-		{
-			// constant and variable
-			if (node.getChild(0).typeIs("const") && !node.getChild(1).typeIs("const"))
+			if (top == 0)
+				return result;
+			
+			// branch further down and repeat simplification, the right operand
+			// first (the left one then sees the right one as it has become)
+			Simplification.Frame f = state.frame(top-1);
+			Term t = f.term;
+			
+			// a function has just the one operand, with nothing beside it
+			if (t.typeIs(Expr.FUNCTION) && f.operandsDone == 0)
 			{
-				swapNodes(node.getChild(0), node.getChild(1));
+				f.operandsDone = 2;
+				next = t.getArgument();
+				nextParent = t.getData();
+				nextSibling = null;
+				continue;
 			}
-		}
-		
-		// convert a-b to a + (-1*b)
-		else if (node.dataIs("-"))
-		{
-			Node child, child2;
-			Node newSum = new Node(new OperatorExpr("+"));
-			
-			child=new Node();
-			newSum.addChild(child.setNode(node.getChild(1)));
-			child = new Node(new OperatorExpr("*"));
-			child2=new Node();
-			child.addChild(child2.setNode(node.getChild(0)));
-			child2=new Node();
-			child.addChild(child2.setNode(new Node(new ConstExpr("-1"))));
-			newSum.addChild(child);
+			if (t.typeIs(Expr.FUNCTION) && result != t.getArgument())
+				t = Term.function(t.getData(), result);
 			
-			node.setNode(newSum);
-		}
-		
-		// x ---> x^1
-		else if (node.typeIs("variable"))
-		{
-			if (!(node.getParent().dataIs("^")))
+			if (t.typeIs(Expr.OPERATOR) && f.operandsDone == 0)
 			{
-				Node child=new Node();
-				Node newPower = new Node(new OperatorExpr("^"));
-				newPower.addChild(new Node(new ConstExpr("1")));
-				newPower.addChild(child.setNode(node));
-				
-				node.setNode(newPower);
+				f.operandsDone = 1;
+				next = t.getRight();
+				nextParent = t.getData();
+				nextSibling = t.getLeft();
+				continue;
 			}
-		}
-		
-		// ^... ---> 1*^...
-		else if (node.dataIs("^"))
-		{
-			if (node.isRoot() || (!(node.getParent().dataIs("*") && node.getOtherChild().typeIs("const"))))
+			if (t.typeIs(Expr.OPERATOR) && f.operandsDone == 1)
 			{
-				Node child=new Node();
-				Node newMult = new Node(new OperatorExpr("*"));
-				newMult.addChild(child.setNode(node));
-				newMult.addChild(new Node(new ConstExpr("1")));
-				node.setNode(newMult);
+				f.operandsDone = 2;
+				f.right = result;
+				next = t.getLeft();
+				nextParent = t.getData();
+				nextSibling = result;
+				continue;
 			}
+			if (t.typeIs(Expr.OPERATOR) && (f.right != t.getRight() || result != t.getLeft()))
+				t = Term.operator(t.getData(), result, f.right);
+			
+			if (state.getRewrites() == f.before)
+				state.setClean(t, f.parent, f.sibling);
+			f.term = f.sibling = f.right = null;
+			top--;
+			result = t;
 		}
+	}
+	
+	// the rewrites simplifyAST makes at term itself, before going into its operands
+	private static Term rewrite(Term term, String parent, Term sibling, Simplification state)
+	{
+		if (debug)
+		{
+			System.out.println("++++++++++++++++++++++++++++++++++++++++");
+			printAST(term.toNode(), " ");
+		}
+		
+		term = canonicalForm(term, parent, sibling, state);
+		
+		// distribution of * over + or -
+		term = state.apply(DISTRIBUTION, term, parent, sibling);
+		
+		// combine like terms, a*x^p + b*x^p ---> (a+b)*x^p
+		term = state.apply(LIKE_TERMS, term, parent, sibling);
+		
+		// const simplification (extension of combine like terms for x^0)
+		term = state.apply(CONSTANTS, term, parent, sibling);
 		
+		return canonicalForm(term, parent, sibling, state);
+	}
+	
+	public static Term canonicalForm(Term term, String parent, Term sibling)
+	{
+		return CANONICAL.apply(term, parent, sibling);
+	}
+	
+	private static Term canonicalForm(Term term, String parent, Term sibling, Simplification state)
+	{
+		return state.apply(CANONICAL, term, parent, sibling);
 	}
 	
-	public static void constSimp(Node node)
+	private static final RuleSet CANONICAL = new RuleSet()
+		.add("*", jCAS::constFirst)
+		.add("-", jCAS::subtractionToSum)
+		.add("variable", jCAS::variableToPower)
+		.add("^", jCAS::powerToProduct);
+	
+	private static final RuleSet DISTRIBUTION = new RuleSet()
+		.add(new String[]{"*", "^"}, jCAS::expandPolynomial)
+		.add("*", jCAS::distribute);
+	
+	private static final RuleSet LIKE_TERMS = new RuleSet()
+		.add("+", jCAS::combineLikeTerms)
+		.add("*", jCAS::combineFactors);
+	
+	private static final RuleSet CONSTANTS = new RuleSet()
+		.add(new String[]{"+", "-", "*", "/", "^"}, (term, parent, sibling) -> constSimp(term))
+		.add("function", (term, parent, sibling) -> functionSimp(term));
+	
+	// ensures nonconst*const --> const*nonconst
+	public static Term constFirst(Term term, String parent, Term sibling)
+	{
+		// constant and variable
+		if (term.getRight().typeIs(Expr.CONST) && !term.getLeft().typeIs(Expr.CONST))
+			return Term.operator("*", term.getRight(), term.getLeft());
+		return term;
+	}
+	
+	// convert a-b to a + (-1*b)
+	public static Term subtractionToSum(Term term, String parent, Term sibling)
 	{
-		if (!(node.getChild(0).typeIs("variable") && node.getChild(1).typeIs("variable")))
+		Term negated = Term.operator("*", Term.constant("-1"), term.getRight());
+		return Term.operator("+", negated, term.getLeft());
+	}
+	
+	// x ---> x^1
+	public static Term variableToPower(Term term, String parent, Term sibling)
+	{
+		if (parent == null || !parent.equals("^"))
+			return Term.operator("^", term, Term.constant("1"));
+		return term;
+	}
+	
+	// ^... ---> 1*^...
+	public static Term powerToProduct(Term term, String parent, Term sibling)
+	{
+		if (parent == null || !(parent.equals("*") && sibling.typeIs(Expr.CONST)))
+			return Term.operator("*", Term.constant("1"), term);
+		return term;
+	}
+	
+	/*
+	 * (x+1)*(x+2) ---> x^2+3*x^1+2, (x+1)^3 ---> x^3+3*x^2+3*x^1+1
+	 * 
+	 * When the product or power is a polynomial in one variable, it is
+	 * multiplied out in one go as a SparsePolynomial rather than by
+	 * distributing one * at a time.
+	 */
+	public static Term expandPolynomial(Term term, String parent, Term sibling)
+	{
+		if (term.opIs(Expr.MULTIPLY) ? !isSum(term.getRight()) && !isSum(term.getLeft())
+				: !isSum(term.getLeft()) || !term.getRight().typeIs(Expr.CONST))
+			return term;
+		SparsePolynomial p = SparsePolynomial.of(term);
+		return (p == null) ? term : p.toTerm();
+	}
+	
+	/*
+	 * a*(b+c) ---> a*b + a*c (and the same for -). a ends up in
+	 * both products, as the one shared Term.
+	 */
+	public static Term distribute(Term term, String parent, Term sibling)
+	{
+		// the right operand is tried first
+		Term[] operands = {term.getRight(), term.getLeft()};
+		for (int i = 0; i < 2; i++)
 		{
-			// const & const
-			if (node.getChild(0).typeIs("const") && node.getChild(1).typeIs("const"))
+			Term sum = operands[i], a = operands[(i+1)%2];
+			if (isSum(sum))
 			{
-				double result = operate(node.getData().getData(), node.getChild(1).getData().getData(), node.getChild(0).getData().getData());
-				Node res = new Node(new ConstExpr(toString(result)));				
-				node.setNode(res);
-			}
-			
-			// const & op
-			else if (node.hasChildOfType("const") && node.hasChildOfType("operator"))
-			{
-				if (node.getChildOfType("operator").sameData(node))
-				{
-					String const1 = node.getChildOfType("const").getData().getData();
-					String op = node.getData().getData();
-					Node tempNode = new Node();
-					tempNode.setNode(node.getChildOfType("operator"));
-					ArrayList<Node> checkpointNodes = new ArrayList<Node>();
-					Node newNode = new Node();
-					
-					while (tempNode.hasChildOfType("const") || tempNode.hasChildOfType("operator"))
-					{
-						if (debug)
-						{
-							System.out.println("================================");
-							printAST(tempNode, " ");
-						}
-						
-						if (tempNode.hasChildOfType("const"))
-						{
-							Node res = new Node(new OperatorExpr(op));
-							Node child;
-							
-							double result = operate(op, const1, tempNode.getChildOfType("const").getData().getData());
-							child = new Node(new ConstExpr(toString(result)));
-							res.addChild(child);
-							
-							Node child2 = new Node();
-							fillParentNodes(node);
-							child2.setNode(tempNode.getChildOfType("const").getOtherChild());
-							
-							fillParentNodes(node);
-							while (!tempNode.getOtherChild().dataIs(const1))
-							{
-								Node tempChild2 = new Node(new OperatorExpr(op));
-								newNode = new Node();
-								tempChild2.addChild(newNode.setNode(child2));
-								newNode = new Node();
-								tempChild2.addChild(newNode.setNode(tempNode.getOtherChild()));
-								newNode = new Node();
-								child2.setNode(newNode.setNode(tempChild2));
-								newNode = new Node();
-								tempNode.setNode(newNode.setNode(tempNode.getParent()));
-							}
-							newNode = new Node();
-							res.addChild(newNode.setNode(child2));
-							
-							newNode = new Node();
-							node.setNode(newNode.setNode(res));
-							break;
-						}
-						else if (tempNode.hasChildOfType("operator"))
-						{
-							if (tempNode.getChild(0).getData().getData().equals(op) && tempNode.getChild(1).getData().getData().equals(op))
-							{
-								newNode = new Node();
-								checkpointNodes.add(newNode.setNode(tempNode.getChild(1)));
-								newNode = new Node();
-								tempNode.setNode(newNode.setNode(tempNode.getChild(0)));
-							}
-							else
-							{
-								if (tempNode.getChild(0).getData().getData().equals(op))
-								{
-									newNode = new Node();
-									tempNode.setNode(newNode.setNode(tempNode.getChild(0)));
-								}
-								else if (tempNode.getChild(1).getData().getData().equals(op))
-								{
-									newNode = new Node();
-									tempNode.setNode(newNode.setNode(tempNode.getChild(1)));
-								}
-								else
-								{
-									if (checkpointNodes.size() > 0)
-									{
-										newNode = new Node();
-										tempNode.setNode(newNode.setNode(checkpointNodes.get(0)));
-										checkpointNodes.remove(0);
-									}
-									else
-									{
-										break;
-									}
-								}
-							}
-						}
-					}
-				}
-			}
-			
-			
-			// op & op
-			else if (node.getChild(0).typeIs("operator") && node.getChild(1).typeIs("operator"))
-			{
-				if (node.getChild(0).sameData(node) && node.getChild(1).sameData(node))
-				{
-					boolean operable = false;
-					for (int i = 0; i < node.getChildren().size(); i++)
-					{
-						String op = node.getData().getData();
-						Node tempNode = new Node();
-						tempNode.setNode(node.getChild(i));
-						ArrayList<Node> checkpointNodes = new ArrayList<Node>();
-						Node newNode = new Node();
-						
-						while (tempNode.hasChildOfType("const") || tempNode.hasChildOfType("operator"))
-						{
-							if (debug)
-							{
-								System.out.println("================================");
-								printAST(tempNode, " ");
-							}
-							
-							if (tempNode.hasChildOfType("const"))
-							{
-								Node res = new Node(new OperatorExpr(op));
-								
-								Node child = new Node();
-								child.setNode(newNode.setNode(tempNode.getChildOfType("const")));
-								res.addChild(child);
-								
-								Node child2 = new Node();
-								fillParentNodes(node);
-								child2.setNode(tempNode.getChildOfType("const").getOtherChild());
-								
-								fillParentNodes(node);
-								while (!tempNode.getOtherChild().isSame(node.getChild(i).getOtherChild()))
-								{
-									Node tempChild2 = new Node(new OperatorExpr(op));
-									newNode = new Node();
-									tempChild2.addChild(newNode.setNode(child2));
-									newNode = new Node();
-									tempChild2.addChild(newNode.setNode(tempNode.getOtherChild()));
-									newNode = new Node();
-									child2.setNode(newNode.setNode(tempChild2));
-									newNode = new Node();
-									tempNode.setNode(newNode.setNode(tempNode.getParent()));
-								}
-								newNode = new Node();
-								res.addChild(newNode.setNode(child2));
-								
-								newNode = new Node();
-								node.getChild(i).setNode(newNode.setNode(res));
-								
-								if (i == 0)
-								{
-									operable=true;
-								}
-								else
-								{
-									operable=operable&&true;
-								}
-								break;
-							}
-							else if (tempNode.hasChildOfType("operator"))
-							{
-								if (tempNode.getChild(0).getData().getData().equals(op) && tempNode.getChild(1).getData().getData().equals(op))
-								{
-									newNode = new Node();
-									checkpointNodes.add(newNode.setNode(tempNode.getChild(1)));
-									newNode = new Node();
-									tempNode.setNode(newNode.setNode(tempNode.getChild(0)));
-								}
-								else
-								{
-									if (tempNode.getChild(0).getData().getData().equals(op))
-									{
-										newNode = new Node();
-										tempNode.setNode(newNode.setNode(tempNode.getChild(0)));
-									}
-									else if (tempNode.getChild(1).getData().getData().equals(op))
-									{
-										newNode = new Node();
-										tempNode.setNode(newNode.setNode(tempNode.getChild(1)));
-									}
-									else
-									{
-										if (checkpointNodes.size() > 0)
-										{
-											newNode = new Node();
-											tempNode.setNode(newNode.setNode(checkpointNodes.get(0)));
-											checkpointNodes.remove(0);
-										}
-										else
-										{
-											operable = operable && false;
-											break;
-										}
-									}
-								}
-							}
-						}
-					}
-					
-					if (operable)
-					{
-						double result = operate(node.getData().getData(), node.getChild(0).getChild(0).getData().getData(), 
-												node.getChild(1).getChild(0).getData().getData());
-						Node res = new Node(new OperatorExpr(node.getData().getData()));
-						Node newNode;
-						
-						newNode = new Node();
-						Node child1 = new Node(new ConstExpr(toString(result)));
-						res.addChild(newNode.setNode(child1));
-						
-						Node child = new Node(new OperatorExpr(node.getData().getData()));
-						newNode = new Node();
-						child.addChild(newNode.setNode(node.getChild(0).getChild(1)));
-						newNode = new Node();
-						child.addChild(newNode.setNode(node.getChild(1).getChild(1)));
-						newNode = new Node();
-						res.addChild(newNode.setNode(child));
-						
-						newNode = new Node();
-						node.setNode(newNode.setNode(res));
-					}
-				}
+				Term dist1 = Term.operator("*", sum.getRight(), a);
+				Term dist2 = Term.operator("*", sum.getLeft(), a);
+				return Term.operator(sum.getData(), dist2, dist1);
 			}
 		}
+		return term;
+	}
+	
+	// a + or a -
+	private static boolean isSum(Term term)
+	{
+		return term.opIs(Expr.ADD) || term.opIs(Expr.SUBTRACT);
 	}
 	
+	// a*x^p + ... + b*x^p ---> (a+b)*x^p + ...
+	public static Term combineLikeTerms(Term term, String parent, Term sibling)
+	{
+		// the top of the chain does it for the whole chain
+		if (parent != null && parent.equals("+"))
+			return term;
+		return Sum.of(term).toTerm();
+	}
 	
-	/*
-	 * These methods are responsible for converting the inputed
-	 * infix to the representative AST. This process is complex
-	 * and involves many steps. A concise summary of the process
-	 * is that it first converts the infix into reverse polish
-	 * notation. Then, then reverse polish expression is converted
-	 * into the AST. An understanding of reverse polish notation
-	 * will explain how this works. Unfortunately, that is beyond
-	 * the scope of this comment.
-	 */
-	public static Node infixToAST(String infix, String variables)
+	// a*x^p * ... * b*x^q ---> (a*b)*x^(p+q) * ...
+	public static Term combineFactors(Term term, String parent, Term sibling)
 	{
-		Queue<String> revPol = infToPost(infix);
-		Node root = createAST(revPol, variables);
-		canonicalForm(root, root);
-		simplifyAST(root, root);
-		
-		return root;
+		if (parent != null && parent.equals("*"))
+			return term;
+		return Product.of(term).toTerm();
 	}
 	
-	public static Node createAST(Queue<String> revPol, String variables)
+	public static Term constSimp(Term term)
 	{
-		Stack<Node> nodeStk = new Stack<>();
-		
-		for (String tkn : revPol)
+		// const & const
+		if (term.getRight().typeIs(Expr.CONST) && term.getLeft().typeIs(Expr.CONST))
+			return Term.constant(operate(term.getOp(), term.getLeft().getData(), term.getRight().getData()));
+		return term;
+	}
+	
+	// sin(0) ---> 0, and so on for any function of a constant it is defined at
+	public static Term functionSimp(Term term)
+	{
+		if (!term.getArgument().typeIs(Expr.CONST))
+			return term;
+		String value = MathFunction.fold(MathFunction.id(term.getData()), term.getArgument().getData());
+		return (value == null) ? term : Term.constant(value);
+	}
+	
+	
+	/*
+	 * differentiate builds the derivative of an AST with respect
+	 * to variable using the sum, product, quotient and power rules.
+	 * The original tree is left untouched. Multiplying by 0 or 1,
+	 * adding 0 and so on are dropped while the tree is being built
+	 * (see makeOp), which leaves far less for simplifyAST to do.
+	 * 
+	 * Powers are only handled when the exponent does not contain
+	 * the variable. Functions go by the chain rule, with the
+	 * derivative of each one in differentiateFunction.
+	 */
+	public static Node differentiate(Node node, String variable)
+	{
+		// post-order, as in Polynomial.collect: a node comes off the stack
+		// the second time once the derivatives of its operands are done
+		ArrayDeque<Node> work = new ArrayDeque<Node>();
+		ArrayDeque<Boolean> visited = new ArrayDeque<Boolean>();
+		ArrayDeque<Node> derivatives = new ArrayDeque<Node>();
+		work.push(node);
+		visited.push(false);
+		while (!work.isEmpty())
 		{
-			// number (constant or variable)
-			if (getPrec(tkn) == -1)
+			Node n = work.pop();
+			boolean operandsDone = visited.pop();
+			if (n.typeIs(Expr.CONST))
+			{
+				derivatives.push(new Node(new ConstExpr("0")));
+			}
+			else if (n.typeIs(Expr.VARIABLE))
+			{
+				derivatives.push(new Node(new ConstExpr(n.dataIs(variable) ? "1" : "0")));
+			}
+			else if (operandsDone)
 			{
-				Node num;
-				if (variables.indexOf(tkn) >= 0)
-					num = new Node(new VariableExpr(tkn));
+				if (n.typeIs(Expr.FUNCTION))
+				{
+					derivatives.push(makeOp("*", differentiateFunction(n.getData().getData(), n.getChild(0)), derivatives.pop()));
+				}
 				else
-					num = new Node(new ConstExpr(tkn));
-				nodeStk.push(num);
+				{
+					// a power only needs the derivative of its base
+					Node dRight = n.opIs(Expr.POWER) ? null : derivatives.pop();
+					Node dLeft = derivatives.pop();
+					derivatives.push(differentiateOperator(n, dLeft, dRight, variable));
+				}
 			}
-			
-			// operator
 			else
 			{
-				Node op = new Node(new OperatorExpr(tkn));
-				
-				Node child;
+				if (n.opIs(Expr.POWER) && dependsOn(n.getChild(0), variable))
+					throw new RuntimeException("Cannot differentiate: variable exponent");
 				
-				for (int i=0; i<2; i++)
+				work.push(n);
+				visited.push(true);
+				if (n.typeIs(Expr.OPERATOR) && !n.opIs(Expr.POWER))
 				{
-					child = nodeStk.pop();
-					op.addChild(child);
-					child.setParent(op);
+					work.push(n.getChild(0));
+					visited.push(false);
 				}
-				
-				nodeStk.push(op);
+				work.push(n.getChild(n.getChildren().size()-1));
+				visited.push(false);
 			}
 		}
-		return nodeStk.peek();
+		return derivatives.pop();
 	}
-		
-	public static Queue<String> infToPost(String infix)
+	
+	// the derivative of "left op right", given dLeft and dRight, the derivatives of its operands
+	private static Node differentiateOperator(Node node, Node dLeft, Node dRight, String variable)
 	{
-		Stack<String> opStk = new Stack<>();
-		Queue<String> output = new LinkedList<>();
+		String op = node.getData().getData();
+		Node right = node.getChild(0);
+		Node left = node.getChild(1);
 		
-		for(String tkn : infix.split("\\s"))
+		switch (node.getData().getOp())
 		{
-			if (tkn.isEmpty())
-				continue;
+			case Expr.ADD:
+			case Expr.SUBTRACT:
+				return makeOp(op, dLeft, dRight);
 			
-			int prec = getPrec(tkn);
+			case Expr.MULTIPLY:
+				return makeOp("+", makeOp("*", dLeft, right.copy()),
+								   makeOp("*", left.copy(), dRight));
 			
-			// operator or (
-			if (prec > 0)
-			{
-				if (opStk.isEmpty())
-					opStk.push(tkn);
-				else
-				{
-					// if other operators have higher precedence, then add them to stack
-					// NOTE: Disregard ( as it is not technically an operator
-					while ((!opStk.isEmpty()) && (!opStk.peek().equals("(")) && ((getPrec(opStk.peek()) > prec) || (getPrec(opStk.peek()) == prec && !tkn.equals("^"))))
-					{
-						output.add(opStk.pop());
-					}
-					opStk.push(tkn);
-				}
-			}
+			case Expr.DIVIDE:
+				if (!dependsOn(right, variable))
+					return makeOp("/", dLeft, right.copy());
+				
+				Node numerator = makeOp("-", makeOp("*", dLeft, right.copy()),
+											 makeOp("*", left.copy(), dRight));
+				return makeOp("/", numerator, makeOp("^", right.copy(), new Node(new ConstExpr("2"))));
 			
-			// (
-			else if (prec == 0)
-			{
-				// while top operator is not (
-				while (!opStk.peek().equals("("))
-				{
-					output.add(opStk.pop());
-				}
-				// pop and discard the ( then
-				// do nothing with the )
-				opStk.pop();
-			}
+			case Expr.POWER:
+				Node exponent;
+				if (right.typeIs(Expr.CONST))
+					exponent = new Node(new ConstExpr(operate(Expr.SUBTRACT, right.getData().getData(), "1")));
+				else
+					exponent = makeOp("-", right.copy(), new Node(new ConstExpr("1")));
+				
+				return makeOp("*", makeOp("*", right.copy(), makeOp("^", left.copy(), exponent)),
+								   dLeft);
 			
-			// number
-			else if (prec == -1)
-			{
-				output.add(tkn);
-			}
+			default:
+				throw new RuntimeException("Unexpected: " + op);
+		}
+	}
+	
+	// f'(u) for the function called name, which the chain rule then multiplies by u'
+	private static Node differentiateFunction(String name, Node u)
+	{
+		switch (MathFunction.id(name))
+		{
+			case MathFunction.SIN:  return makeFunction("cos", u.copy());
+			case MathFunction.COS:  return makeOp("*", new Node(new ConstExpr("-1")), makeFunction("sin", u.copy()));
+			case MathFunction.EXP:  return makeFunction("exp", u.copy());
+			case MathFunction.LOG:  return makeOp("/", new Node(new ConstExpr("1")), u.copy());
+			case MathFunction.SQRT: return makeOp("/", new Node(new ConstExpr("1")),
+												  makeOp("*", new Node(new ConstExpr("2")), makeFunction("sqrt", u.copy())));
+			default:
+				throw new RuntimeException("Unexpected: " + name);
 		}
+	}
+	
+	// name(argument), folded if the argument is a constant it is defined at
+	public static Node makeFunction(String name, Node argument)
+	{
+		if (argument.typeIs(Expr.CONST))
+		{
+			String value = MathFunction.fold(MathFunction.id(name), argument.getData().getData());
+			if (value != null)
+				return new Node(new ConstExpr(value));
+		}
+		Node node = new Node(new FunctionExpr(name));
+		node.addChild(argument);
+		return node;
+	}
+	
+	/*
+	 * Builds "left op right", folding constants and the trivial
+	 * cases (x+0, x-0, x*0, x*1, 0/x, x/1, x^0, x^1) right away.
+	 */
+	public static Node makeOp(String op, Node left, Node right)
+	{
+		int code = Expr.opcode(op);
+		if (left.typeIs(Expr.CONST) && right.typeIs(Expr.CONST))
+			return new Node(new ConstExpr(operate(code, left.getData().getData(), right.getData().getData())));
+		if (code == Expr.ADD && isConst(left, 0))
+			return right;
+		if ((code == Expr.ADD || code == Expr.SUBTRACT) && isConst(right, 0))
+			return left;
+		if (code == Expr.MULTIPLY && (isConst(left, 0) || isConst(right, 0)))
+			return new Node(new ConstExpr("0"));
+		if (code == Expr.MULTIPLY && isConst(left, 1))
+			return right;
+		if ((code == Expr.MULTIPLY || code == Expr.DIVIDE) && isConst(right, 1))
+			return left;
+		if (code == Expr.DIVIDE && isConst(left, 0))
+			return left;
+		if (code == Expr.POWER && isConst(right, 0))
+			return new Node(new ConstExpr("1"));
+		if (code == Expr.POWER && isConst(right, 1))
+			return left;
 		
-		// clear out remaining operators
-		while (!opStk.isEmpty())
+		Node node = new Node(new OperatorExpr(op));
+		node.addChild(right);
+		node.addChild(left);
+		return node;
+	}
+	
+	public static boolean isConst(Node node, double value)
+	{
+		return node.typeIs(Expr.CONST) && Rational.toDouble(node.getData().getData()) == value;
+	}
+	
+	public static boolean dependsOn(Node node, String variable)
+	{
+		ArrayDeque<Node> work = new ArrayDeque<Node>();
+		work.push(node);
+		while (!work.isEmpty())
+		{
+			Node n = work.pop();
+			if (n.typeIs(Expr.VARIABLE) && n.dataIs(variable))
+				return true;
+			for (Node child : n.getChildren())
+				work.push(child);
+		}
+		return false;
+	}
+	
+	/*
+	 * Compiles the exact derivative of an AST for Newton's Method.
+	 * The derivative is taken of the AST straight from the infix,
+	 * before any simplification. Returns null (so that a finite
+	 * difference is used) if it cannot be differentiated.
+	 */
+	public static CompiledExpr compileDerivative(Node raw, String variables)
+	{
+		try
+		{
+			return ExprCompiler.compile(differentiate(raw, variables.substring(0, 1)), variables);
+		}
+		catch (RuntimeException e)
 		{
-			output.add(opStk.pop());
+			return null;
 		}
+	}
+	
+	
+	/*
+	 * Converts the inputed infix to the representative AST (see
+	 * Parser, which reads it straight into Nodes in one pass) and
+	 * gives it a first simplification pass.
+	 */
+	public static Node infixToAST(String infix, String variables)
+	{
+		Term root = Term.of(Parser.parse(infix, variables));
+		root = simplifyAST(canonicalForm(root, null, null), null, null, new Simplification());
 		
-		return output;
+		return root.toNode();
 	}
 	
 	
@@ -632,369 +1041,196 @@ public class jCAS {
 	 */
 	public static double deriv(double x, double h, String eq, String variables)
 	{
-		return (eval(plugIn(eq, x+h, variables)) - eval(plugIn(eq, x, variables)))/h;
+		Program f = Program.compile(eq, variables.substring(0, 1));
+		double[] vars = new double[1];
+		vars[0] = x+h;
+		double fxh = f.eval(vars);
+		vars[0] = x;
+		return (fxh - f.eval(vars))/h;
+	}
+	
+	public static double deriv(CompiledExpr f, double[] vars, double x, double h)
+	{
+		return (eval(f, vars, x+h) - eval(f, vars, x))/h;
 	}
 	
 	/*
-	 * The eval method is a Recursive Descent Parser. It uses
-	 * the order of operations to solve a mathematical expression.
-	 * eval is used (unsurprisingly) as an evaluation method, akin
-	 * to f(x). It is crucial in computing the derivative
+	 * Evaluates the infix at every x in xs (x being the first
+	 * variable) in one batch; see BatchEval. For many points this
+	 * is far faster than calling eval once per point.
 	 */
-	public static double eval(String eq) {
-	    return new Object() {
-	        int pos = -1, ch;
-
-	        void nextChar() {
-	            ch = (++pos < eq.length()) ? eq.charAt(pos) : -1;
-	        }
-
-	        boolean eat(int charToEat) {
-	            while (ch == ' ') nextChar();
-	            if (ch == charToEat) {
-	                nextChar();
-	                return true;
-	            }
-	            return false;
-	        }
-
-	        double parse() {
-	            nextChar();
-	            double x = parseExpression();
-	            if (pos < eq.length()) throw new RuntimeException("Unexpected: " + (char)ch);
-	            return x;
-	        }
-
-	        // Grammar:
-	        // expression = term | expression `+` term | expression `-` term
-	        // term = factor | term `*` factor | term `/` factor
-	        // factor = `+` factor | `-` factor | `(` expression `)`
-	        //        | number | functionName factor | factor `^` factor
-
-	        double parseExpression() {
-	            double x = parseTerm();
-	            for (;;) {
-	                if      (eat('+')) x += parseTerm(); // addition
-	                else if (eat('-')) x -= parseTerm(); // subtraction
-	                else return x;
-	            }
-	        }
-
-	        double parseTerm() {
-	            double x = parseFactor();
-	            for (;;) {
-	                if      (eat('*')) x *= parseFactor(); // multiplication
-	                else if (eat('/')) x /= parseFactor(); // division
-	                else return x;
-	            }
-	        }
-
-	        double parseFactor() {
-	            if (eat('+')) return parseFactor(); // unary plus
-	            if (eat('-')) return -parseFactor(); // unary minus
-
-	            double x;
-	            int startPos = this.pos;
-	            if (eat('(')) { // parentheses
-	                x = parseExpression();
-	                eat(')');
-	            } else if ((ch >= '0' && ch <= '9') || ch == '.') { // numbers
-	                while ((ch >= '0' && ch <= '9') || ch == '.') nextChar();
-	                x = Double.parseDouble(eq.substring(startPos, this.pos));
-	            } else if (ch >= 'a' && ch <= 'z') { // functions
-	                while (ch >= 'a' && ch <= 'z') nextChar();
-	                String func = eq.substring(startPos, this.pos);
-	                x = parseFactor();
-	            } else {
-	                throw new RuntimeException("Unexpected: " + (char)ch);
-	            }
-
-	            if (eat('^')) x = Math.pow(x, parseFactor()); // exponentiation
-
-	            return x;
-	        }
-	    }.parse();
+	public static double[] evalBatch(String infix, String variables, double[] xs)
+	{
+		Node node = Parser.parse(infix, variables);
+		return BatchEval.compile(node, variables.substring(0, 1)).eval(xs);
 	}
 	
 	/*
-	 * This method returns a string of the mathematical
-	 * expression, eq, with all the variables replaced with
-	 * the given double value, x.
-	 * 
-	 * For example:
-	 * (x+5) * (x-3)
-	 * goes to:
-	 * (1+5) * (1-3)
-	 * when Double x == 1.
+	 * Evaluates a compiled expression with the first
+	 * variable (the one being solved for) set to x.
 	 */
-	public static String plugIn(String eq, Double x, String variables)
+	public static double eval(CompiledExpr f, double[] vars, double x)
 	{
-		String newEq="";
-		for (int i = 0; i < eq.length(); i++)
-		{
-			if (eq.charAt(i)==variables.charAt(0))
-			{
-				DecimalFormat df = new DecimalFormat("#");
-		        df.setMaximumFractionDigits(8);
-				newEq+="("+df.format(x)+")";
-			}
-			else
-			{
-				newEq+=eq.charAt(i);
-			}
-		}
-		return newEq;
+		vars[0] = x;
+		return f.eval(vars);
+	}
+	
+	/*
+	 * The eval method evaluates a mathematical expression using
+	 * the order of operations, akin to f(x). The expression is
+	 * compiled into a Program (see Parser for the grammar) and run
+	 * once; to evaluate the same expression many times, compile it
+	 * once with Program.compile and call eval on that instead.
+	 */
+	public static double eval(String eq) {
+		return Program.compile(eq, "").eval();
 	}
 	
 	/*
-	 * In the attempt to avoid problems with pointers
-	 * and unwanted references in java, almost all nodes
-	 * are constructed as new nodes with same information.
-	 * As a result, they are no longer a part of the AST
-	 * and exist instead separately. To put them into the tree
-	 * in their respective positions, the fillParentNodes() method
-	 * must occasionally be called.
+	 * Node keeps parent links up to date as the tree is rewritten
+	 * (see Node.setNode), so this is only needed for a tree whose
+	 * nodes were linked up some other way.
 	 */
 	// fills all nodes with correct parents starting from "node"
 	public static void fillParentNodes(Node node)
 	{
-		for (Node child : node.getChildren())
+		ArrayDeque<Node> work = new ArrayDeque<Node>();
+		work.push(node);
+		while (!work.isEmpty())
 		{
-			child.setParent(node);
-			if (!child.getChildren().isEmpty())
+			Node parent = work.pop();
+			for (Node child : parent.getChildren())
 			{
-				fillParentNodes(child);
+				child.setParent(parent);
+				if (!child.getChildren().isEmpty())
+					work.push(child);
 			}
 		}
 	}
 	
 	/*
-	 * These "to..." methods and swapNodes are self-explanatory
+	 * These "to..." methods are self-explanatory
 	 */
 	public static String toString(Double d)
 	{
 		return Double.toString(d);
 	}
 	
-	public static double toDouble(String s)
+	public static double round(double d)
 	{
-		BigDecimal bd = new BigDecimal(Double.parseDouble(s));
+		BigDecimal bd = new BigDecimal(d);
 	    bd = bd.setScale(3, RoundingMode.HALF_UP);
 	    return bd.doubleValue();
 	}
 	
-	public static void swapNodes(Node a, Node b)
+	public static double toDouble(String s)
 	{
-		Node temp = new Node();
-		temp.setNode(a);
-		a.setNode(b);
-		b.setNode(temp);
+		return Rational.toDouble(s);
 	}
 	
 	/*
-	 * toInfix converts a given AST to its respective
-	 * infix. This is a complex process due to traditional
-	 * mathematical nomenclature. It contains many arbitrarily
-	 * ugly rules which don't implement nicely into computers,
-	 * hence the excessive if-else statements.
+	 * printAST simply provides a visual representation of the
+	 * AST, which is useful for debugging
 	 */
-	public static String toInfix(String infix, Node node)
+	public static void printAST(Node node, String appender)
 	{
-		if (!node.typeIs("operator"))
-		{
-			if (node.getParent() != null)
-			{
-				if (!(node.getParent().dataIsOr("*", "/") && node.dataIsIn(new String[]{"1", "1.0", "-1", "-1.0"})))
-				{
-					if (!(node.getParent().dataIsOr("+","-") && node.dataIsOr("0", "0.0")))
-					{
-						if (node.getData().getData().charAt(0)=='-' && infix.length()>=2)
-						{
-							if (infix.charAt(infix.length()-2)=='+')
-								infix = infix.substring(0, infix.length()-2);
-						}
-						infix+=node.getData().getData() + " ";
-					}
-					else if (node.dataIsOr("0", "0.0"))
-					{
-						if (infix.length()>=2)
-						{
-							if (infix.charAt(infix.length()-2)=='+' || infix.charAt(infix.length()-2)=='-')
-								infix = infix.substring(0, infix.length()-2);
-						}
-					}
-				}
-				else if (node.dataIsOr("-1", "-1.0"))
-				{
-					if (infix.length()>=2)
-					{
-						if (infix.charAt(infix.length()-2)=='+')
-							infix = infix.substring(0, infix.length()-2);
-					}
-					infix += "- ";
-				}
-			}
-		}
-		else
+		// default appender should be " "
+		ArrayDeque<Node> nodes = new ArrayDeque<Node>();
+		ArrayDeque<String> appenders = new ArrayDeque<String>();
+		nodes.push(node);
+		appenders.push(appender);
+		while (!nodes.isEmpty())
 		{
-			boolean needParens=true;
-			if (node.isRoot())
-			{
-				needParens=false;
-			}
-			else
-			{
-				if (node.comparePrec(node.getParent()) > 0)
-				{
-					needParens=false;
-				}
-				else if (node.comparePrec(node.getParent()) == 0)
-				{
-					if (node.getParent().getChild(node.getParent().getChildren().size()-1) == node)
-					{
-						needParens=false;
-					}
-					if (!node.getParent().dataIs("-"))
-					{
-						needParens=false;
-					}
-				}
-			}
-			
-			if (needParens)
-				infix += "( ";
-			
-			for (int i = node.getChildren().size() - 1; i >= 0; i--)
+			Node n = nodes.pop();
+			String a = appenders.pop();
+			System.out.println(a + n.getData().getData());
+			// pushed last to first, so that they come out in order
+			for (int i = n.getChildren().size() - 1; i >= 0; i--)
 			{
-				infix = toInfix(infix, node.getChild(i));
-				
-				// not first child
-				if (i != 0)
-				{
-					if (!(node.getChild(i-1).dataIsOr("-1","-1.0") || (node.dataIs("*")&&node.getChild(1).dataIsIn(new String[]{"1", "1.0", "-1", "-1.0"}))))
-						infix += node.getData().getData() + " ";
-//					else if (node.getChild(i-1).dataIsOr("-1","-1.0"))
-//						infix += "- ";
-				}
+				nodes.push(n.getChild(i));
+				appenders.push(a + a);
 			}
-			
-			if (needParens)
-				infix += ") ";
 		}
-		return infix;
 	}
 	
 	/*
-	 * getPrec is an attempt at enforcing the rules
-	 * of order of operations whilst reading the infix
+	 * ASTtoInfix gives the infix of an AST with delim between
+	 * its tokens. InfixWriter does the work, and can also write
+	 * it straight into a file or anything else Appendable.
 	 */
-	public static int getPrec(String op)
+	public static String ASTtoInfix(Node node, String delim)
 	{
-		Map<String, Integer> ops = new HashMap<String, Integer>();
-		ops.put("(", 100); ops.put(")", 0); ops.put("+", 2); ops.put("-", 2); ops.put("*", 3); ops.put("/", 3); ops.put("^", 4);
-		
-		if (ops.get(op) != null)
-			return ops.get(op);
-		else
-			return -1;
+		return InfixWriter.toString(node, delim);
 	}
 	
 	/*
-	 * printAST simply provides a visual representation of the
-	 * AST, which is useful for debugging
+	 * operate is an important part of the constSimp method
+	 * in generating actual results from mathematical operations
+	 * on two constants, a and b. op is an opcode (see Expr).
+	 * 
+	 * The arithmetic is exact (see Rational), so 1/3*3 is 1 and the
+	 * result is written back as "p/q" when it is not a whole number.
+	 * Only what cannot be exact is done in doubles: a power with a
+	 * fractional exponent or too large to write out, a division by
+	 * zero, or an operand that is already Infinity or NaN.
 	 */
-	public static void printAST(Node node, String appender)
+	public static String operate(int op, String a, String b)
 	{
-		// default appender should be " "
-		System.out.println(appender + node.getData().getData());
-		for (Node child : node.getChildren())
+		try
 		{
-			printAST(child, appender+appender);
+			Rational x = Rational.parse(a), y = Rational.parse(b);
+			switch (op)
+			{
+				case Expr.ADD:      return x.add(y).toString();
+				case Expr.SUBTRACT: return x.subtract(y).toString();
+				case Expr.MULTIPLY: return x.multiply(y).toString();
+				case Expr.DIVIDE:   return x.divide(y).toString();
+				case Expr.POWER:
+					double n = Math.abs(y.doubleValue());
+					if (y.isInteger() && n <= Integer.MAX_VALUE && n*x.bitLength() <= MAX_EXACT_BITS)
+						return x.pow((int) y.doubleValue()).toString();
+					return Rational.valueOf(Math.pow(x.doubleValue(), y.doubleValue())).toString();
+				default:
+					throw new RuntimeException("Unknown operator: " + op);
+			}
+		}
+		catch (ArithmeticException | NumberFormatException e)
+		{
+			return toString(operate(op, Rational.toDouble(a), Rational.toDouble(b)));
 		}
 	}
 	
-	public static String ASTtoInfix(Node node, String delim)
+	private static double operate(int op, double a, double b)
 	{
-		String s = toInfix("", node);
-		String[] rev = s.split(" ");
-		return String.join(delim, rev);
+		switch (op)
+		{
+			case Expr.ADD:      return a + b;
+			case Expr.SUBTRACT: return a - b;
+			case Expr.MULTIPLY: return a * b;
+			case Expr.DIVIDE:   return a / b;
+			default:            return Math.pow(a, b);
+		}
 	}
 	
-	/*
-	 * operate is an important part of the constSimp method
-	 * in generating actual results from mathematical operations
-	 * on two doubles, a and b.
-	 */
-	public static double operate(String op, String a, String b)
-	{
-		// returns result from operation op on operands a and b
-		if (op.equals("+"))
-			return toDouble(a) + toDouble(b);
-		else if (op.equals("-"))
-			return toDouble(a) - toDouble(b);
-		else if (op.equals("*"))
-			return toDouble(a) * toDouble(b);
-		else if (op.equals("/"))
-			return toDouble(a) / toDouble(b);
-		else if (op.equals("^"))
-			return Math.pow(toDouble(a), toDouble(b));
-		else
-			return -1;
-	}
-
 	/*
 	 * This method allows the user to type in:
 	 * a+b-(c+d)
 	 * 
 	 * The method will then transform this into:
 	 * a + b - ( c + d )
-	 * for use by the program
+	 * 
+	 * Parsing does not need it any more (the Lexer splits the infix
+	 * up itself), but the spaced form is still handy for display.
 	 */
 	public static String addSpaces(String infix)
 	{
-		String inf = String.join("", infix.split(" "));
-		
-		String newInfix="" + inf.charAt(0);
-		if (inf.charAt(0)=='(')
-		{
-			newInfix+=" ";
-		}
-		for (int i = 1; i < inf.length(); i++)
+		StringBuilder sb = new StringBuilder();
+		for (Token tkn : Lexer.tokenize(infix))
 		{
-			if (isOperator(inf.charAt(i)))
-			{
-				if (!isOperator(inf.charAt(i-1)))
-				{
-					newInfix += " ";
-				}
-				newInfix += inf.charAt(i) + " ";
-			}
-			else
-			{
-				newInfix += inf.charAt(i);
-			}
+			if (sb.length() > 0)
+				sb.append(' ');
+			sb.append(tkn.getText());
 		}
-		
-		return newInfix;
-	}
-	
-	/*
-	 * Helper method to addSpaces
-	 */
-	public static boolean isOperator(char c)
-	{
-		return (c == '-') || (c == '+') || (c == '*') || (c == '/') || (c == '^') || (c == '(') || (c == ')');
-	}
-	
-	/*
-	 * This method is a useful helper method for converting
-	 * the infix to AST, discussed above.
-	 */
-	public static String queueToString(Queue<String> q)
-	{
-		String s = "";
-		for (String i : q)
-			s += i + ", ";
-		return s;
+		return sb.toString();
 	}
 }
@@ -122,12 +122,17 @@ public class jGUI extends JFrame implements ActionListener {
     /* 
      * Takes in the infix and returns a
      * String concatenated with all variables.
+     * Function names (sin, cos...) are not variables.
      */
     public String variableParser(String input) {
     	String variables = "";
     	
     	for(int curChar = 0; curChar < input.length(); curChar++) {
-    		if(Character.isLetter(input.charAt(curChar)) && variables.indexOf(input.charAt(curChar)) == -1) {
+    		int function = MathFunction.at(input, curChar);
+    		if(function >= 0) {
+    			curChar += MathFunction.name(function).length() - 1;
+    		}
+    		else if(Character.isLetter(input.charAt(curChar)) && variables.indexOf(input.charAt(curChar)) == -1) {
     			variables += input.charAt(curChar);
     		}
     	}
@@ -155,6 +160,7 @@ public class jGUI extends JFrame implements ActionListener {
      * Takes the input and parses it to
      * get and return "a-b". This is
      * based on input of "solve(a=b)"
+     * (or "solve(a=b, lo, hi)")
      * The reason for returning a-b
      * is so that it can be easily solved
      * using Newton's Method.
@@ -163,6 +169,9 @@ public class jGUI extends JFrame implements ActionListener {
     	int firstPar = input.indexOf("(");
     	int equals = input.indexOf("=");
     	int lastPar = input.lastIndexOf(")");
+    	int comma = input.indexOf(",", equals);
+    	if (comma != -1)
+    		lastPar = comma;
     	
     	String infix = input.substring(firstPar + 1, equals);
     	infix += "-(" + input.substring(equals+1, lastPar) + ")";
@@ -170,6 +179,44 @@ public class jGUI extends JFrame implements ActionListener {
     	return infix;
     }
     
+    /* 
+     * Takes the input and parses it to
+     * get and return {"a-b", "c-d", ...}.
+     * This is based on input of
+     * "solve({a=b, c=d, ...})"
+     */
+    public String[] systemParser(String input) {
+    	int firstBrace = input.indexOf("{");
+    	int lastBrace = input.lastIndexOf("}");
+    	
+    	String[] equations = input.substring(firstBrace + 1, lastBrace).split(",");
+    	for (int i = 0; i < equations.length; i++) {
+    		int equals = equations[i].indexOf("=");
+    		equations[i] = equations[i].substring(0, equals) + "-(" + equations[i].substring(equals+1) + ")";
+    	}
+    	
+    	return equations;
+    }
+    
+    /* 
+     * Takes the input and returns the domain
+     * {lo, hi} of "solve(a=b, lo, hi)", or
+     * null if no domain was given.
+     */
+    public double[] domainParser(String input) {
+    	int equals = input.indexOf("=");
+    	int comma = input.indexOf(",", equals);
+    	int lastPar = input.lastIndexOf(")");
+    	if (comma == -1)
+    		return null;
+    	
+    	String[] bounds = input.substring(comma + 1, lastPar).split(",");
+    	if (bounds.length != 2)
+    		return null;
+    	
+    	return new double[]{Double.parseDouble(bounds[0].trim()), Double.parseDouble(bounds[1].trim())};
+    }
+    
     /* 
      * Takes the input and returns if it
      * is calling the simplify() command.
@@ -191,6 +238,26 @@ public class jGUI extends JFrame implements ActionListener {
     	return false;
     }
     
+    /* 
+     * Takes the input and returns if it
+     * is calling solve() on a system {...}.
+     */
+    public boolean isSystem(String input) {
+    	if (input.indexOf("solve({") != -1)
+    		return true;
+    	return false;
+    }
+    
+    /* 
+     * Takes the input and returns if it
+     * is calling the diff() command.
+     */
+    public boolean isDiff(String input) {
+    	if (input.indexOf("diff(") != -1)
+    		return true;
+    	return false;
+    }
+    
     /* 
      * Takes a keyboard input from the user
      * and analyzes it to create a jCAS object
@@ -212,20 +279,49 @@ public class jGUI extends JFrame implements ActionListener {
         	break;
         }
         
-        if (isSimplify(display.getText())) {
-        	String parsed = simplifyParser(display.getText());
-        	String variables = variableParser(parsed);
+        // anything that can't be parsed, solved or differentiated is reported in output
+        try {
+        	if (isSimplify(display.getText())) {
+        		String parsed = simplifyParser(display.getText());
+        		String variables = variableParser(parsed);
+        		
+        		jCAS newEquation = new jCAS(variables, parsed, false, false);
+        		output.setText(newEquation.getOutput());
+        		add = false;
+        	}
+        	else if (isSystem(display.getText())) {
+        		String[] parsed = systemParser(display.getText());
+        		String variables = variableParser(String.join(",", parsed));
+        		
+        		jCAS newEquation = new jCAS(variables, parsed, false);
+        		output.setText(newEquation.getOutput());
+        		add = false;
+        	}
+        	else if (isSolve(display.getText())) {
+        		String parsed = solveParser(display.getText());
+        		String variables = variableParser(parsed);
+        		double[] domain = domainParser(display.getText());
+        		
+        		jCAS newEquation;
+        		if (domain != null)
+        			newEquation = new jCAS(variables, parsed, false, "solve", domain[0], domain[1]);
+        		else
+        			newEquation = new jCAS(variables, parsed, false, true);
+        		output.setText(newEquation.getOutput());
+        		add = false;
+        	}
+        	else if (isDiff(display.getText())) {
+        		String parsed = simplifyParser(display.getText());
+        		String variables = variableParser(parsed);
+        		
+        		jCAS newEquation = new jCAS(variables, parsed, false, "diff");
+        		output.setText(newEquation.getOutput());
+        		add = false;
+        	}
         	
-        	jCAS newEquation = new jCAS(variables, parsed, false, false);
-        	output.setText(newEquation.getOutput());
-        	add = false;
         }
-        else if (isSolve(display.getText())) {
-        	String parsed = solveParser(display.getText());
-        	String variables = variableParser(parsed);
-        	
-        	jCAS newEquation = new jCAS(variables, parsed, false, true);
-        	output.setText(newEquation.getOutput());
+        catch (RuntimeException e) {
+        	output.setText("Error: " + e.getMessage());
         	add = false;
         }
         